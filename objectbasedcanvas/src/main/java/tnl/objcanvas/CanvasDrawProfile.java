@@ -0,0 +1,74 @@
+package tnl.objcanvas;
+
+import java.util.Collections;
+import java.util.List;
+
+
+
+/**
+ * Immutable snapshot of the drawing statistics collected by ObjectBasedCanvas
+ * while draw profiling is enabled
+ */
+public class CanvasDrawProfile {
+	// Most recent frames, oldest first
+	public final List<FrameStats> frames;
+
+	// Cumulative draw time per object type, since profiling was enabled
+	public final List<ObjectTypeStats> objectTypes;
+
+
+
+	CanvasDrawProfile(List<FrameStats> frames, List<ObjectTypeStats> objectTypes) {
+		this.frames = Collections.unmodifiableList(frames);
+		this.objectTypes = Collections.unmodifiableList(objectTypes);
+	}
+
+
+
+
+
+
+	public static class FrameStats {
+		// System.nanoTime() at the start of the frame
+		public final long startNanos;
+		public final long durationNanos;
+
+		public final int objectsDrawn;
+		// Invisible or culled objects
+		public final int objectsSkipped;
+
+		public final boolean isOnAnimation;
+
+
+
+		FrameStats(
+			long startNanos, long durationNanos, int objectsDrawn, int objectsSkipped,
+			boolean isOnAnimation
+		) {
+			this.startNanos = startNanos;
+			this.durationNanos = durationNanos;
+			this.objectsDrawn = objectsDrawn;
+			this.objectsSkipped = objectsSkipped;
+			this.isOnAnimation = isOnAnimation;
+		}
+
+	}
+
+
+
+	public static class ObjectTypeStats {
+		public final Class<?> type;
+		public final long drawCount;
+		public final long totalDrawNanos;
+
+
+
+		ObjectTypeStats(Class<?> type, long drawCount, long totalDrawNanos) {
+			this.type = type;
+			this.drawCount = drawCount;
+			this.totalDrawNanos = totalDrawNanos;
+		}
+
+	}
+
+}
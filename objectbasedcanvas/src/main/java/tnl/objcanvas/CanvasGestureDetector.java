@@ -45,6 +45,11 @@ public class CanvasGestureDetector {
 	private boolean longPressEnabled = true;
 	private Handler longPressHandler;
 
+	// Parameters passed to listener, reused for every move event
+	private final float[] translateParams = new float[2];
+	private final float[] scaleParams = new float[4];
+	private final float[] rotateParams = new float[3];
+
 
 
 	public CanvasGestureDetector() {
@@ -152,10 +157,8 @@ public class CanvasGestureDetector {
 
 				isMoving = true;
 
-				float[] translateParams = new float[] {
-					curPointers[0].x - lastPointers[0].x,
-					curPointers[0].y - lastPointers[0].y
-				};
+				translateParams[0] = curPointers[0].x - lastPointers[0].x;
+				translateParams[1] = curPointers[0].y - lastPointers[0].y;
 
 				listener.onTouchMove(curPointers[0].x, curPointers[0].y, translateParams);
 
@@ -167,35 +170,31 @@ public class CanvasGestureDetector {
 
 				isMoving = true;
 
-				PointF lastMid = new PointF(
-					(lastPointers[0].x + lastPointers[1].x) / 2,
-					(lastPointers[0].y + lastPointers[1].y) / 2
-				);
+				float lastMidX = (lastPointers[0].x + lastPointers[1].x) / 2;
+				float lastMidY = (lastPointers[0].y + lastPointers[1].y) / 2;
 
-				PointF curMid = new PointF(
-					(curPointers[0].x + curPointers[1].x) / 2,
-					(curPointers[0].y + curPointers[1].y) / 2
-				);
+				float curMidX = (curPointers[0].x + curPointers[1].x) / 2;
+				float curMidY = (curPointers[0].y + curPointers[1].y) / 2;
 
-				float[] translateParams = new float[] {
-					curMid.x - lastMid.x,
-					curMid.y - lastMid.y
-				};
+				translateParams[0] = curMidX - lastMidX;
+				translateParams[1] = curMidY - lastMidY;
 
 				float scale =
 					distance(curPointers[0], curPointers[1])
 					/ distance(lastPointers[0], lastPointers[1]);
 
-				float[] scaleParams = new float[] {scale, scale,lastMid.x, lastMid.y};
+				scaleParams[0] = scale;
+				scaleParams[1] = scale;
+				scaleParams[2] = lastMidX;
+				scaleParams[3] = lastMidY;
 
 				double angleRad =
-					Math.atan2(curMid.y - curPointers[0].y, curMid.x - curPointers[0].x)
-					- Math.atan2(lastMid.y - lastPointers[0].y, lastMid.x - lastPointers[0].x);
+					Math.atan2(curMidY - curPointers[0].y, curMidX - curPointers[0].x)
+					- Math.atan2(lastMidY - lastPointers[0].y, lastMidX - lastPointers[0].x);
 
-				float[] rotateParams = new float[] {
-					(float)(angleRad / Math.PI * 180),
-					lastMid.x, lastMid.y
-				};
+				rotateParams[0] = (float)(angleRad / Math.PI * 180);
+				rotateParams[1] = lastMidX;
+				rotateParams[2] = lastMidY;
 
 				listener.onMultiTouchMove(translateParams, scaleParams, rotateParams);
 			}
@@ -2,6 +2,8 @@ package tnl.objcanvas;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.CancellationSignal;
 import android.support.annotation.Nullable;
 
 
@@ -15,5 +17,33 @@ public interface CanvasObject {
 	);
 
 	boolean needLazyUpdate();
-	void lazyUpdate(ViewMatrixAnalyzer matAnalyzer, int viewWidth, int viewHeight);
+
+	/**
+	 * Called off the UI thread, after the view has settled, for objects needing it
+	 *
+	 * @param matAnalyzer View matrix the update is for
+	 * @param viewWidth
+	 * @param viewHeight
+	 * @param cancellationSignal Canceled as soon as the view matrix changes or a gesture
+	 *                           starts, which makes the update obsolete. Long updates
+	 *                           should check it and return early, keeping what they had
+	 */
+	void lazyUpdate(
+		ViewMatrixAnalyzer matAnalyzer, int viewWidth, int viewHeight,
+		CancellationSignal cancellationSignal
+	);
+
+	/**
+	 *
+	 * @param res Bound of the object, relative to original coordinate system
+	 * @return false if the object has no finite bound (it may draw anywhere)
+	 */
+	boolean getBound(RectF res);
+
+	/**
+	 *
+	 * @return Version of the object's content. Must increase every time something
+	 *         affecting the bound or the drawing of the object changes
+	 */
+	long getVersion();
 }
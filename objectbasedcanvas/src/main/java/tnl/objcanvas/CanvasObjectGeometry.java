@@ -0,0 +1,164 @@
+package tnl.objcanvas;
+
+import android.graphics.PointF;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Exact, per-type geometric tests on canvas objects, in original coordinate system.
+ * Used to refine candidates returned by the spatial index
+ */
+class CanvasObjectGeometry {
+	/**
+	 *
+	 * @param obj
+	 * @param x,y         Point in original coordinate system
+	 * @param tolerancePx Tolerance, in view pixels
+	 * @param viewScale   Scale of the view matrix, to convert view pixels to original units
+	 * @return Whether the point hits obj:
+	 *          - CanvasPolygon: inside, or near its outline or a drawn vertex point
+	 *          - CanvasPolyline: near one of its segments or drawn vertex points
+	 *          - Other objects (CanvasResponsiveBitmap included): inside its bound
+	 */
+	public static boolean hitTest(
+		CanvasObject obj, float x, float y, float tolerancePx, float viewScale
+	) {
+		if (obj instanceof CanvasPoly) {
+			CanvasPoly poly = (CanvasPoly)obj;
+
+			// Lines and vertex points are drawn in view pixels
+			float tolerance = (tolerancePx + poly.lineWidth / 2) / viewScale;
+			boolean closed = (obj instanceof CanvasPolygon);
+
+			if (closed && GeometryUtil.pointInsidePolygon(x, y, poly.vertices)) {
+				return true;
+			}
+
+			if (GeometryUtil.distancePointToPolyline(x, y, poly.vertices, closed) <= tolerance) {
+				return true;
+			}
+
+			// A vertex point may be wider than the line, e.g. on a thin polyline
+			if (poly.isVertexPointDrawn()) {
+				float pointTolerance = (tolerancePx + poly.vertexPointSize / 2) / viewScale;
+
+				for (PointF v : poly.vertices) {
+					float dx = x - v.x;
+					float dy = y - v.y;
+
+					if (dx * dx + dy * dy <= pointTolerance * pointTolerance) {
+						return true;
+					}
+
+				}
+
+			}
+
+			return false;
+		}
+
+		RectF bound = new RectF();
+
+		if (!obj.getBound(bound)) {
+			return false;
+		}
+
+		float tolerance = tolerancePx / viewScale;
+
+		return x >= bound.left - tolerance && x <= bound.right + tolerance
+			&& y >= bound.top - tolerance && y <= bound.bottom + tolerance;
+	}
+
+
+	/**
+	 *
+	 * @param obj
+	 * @param region Closed polygon, in original coordinate system
+	 * @return Whether obj and region have any common point
+	 */
+	public static boolean intersectsRegion(CanvasObject obj, List<PointF> region) {
+		List<PointF> outline = getOutline(obj);
+
+		if (outline == null || outline.size() == 0) {
+			return false;
+		}
+
+		boolean closed = isClosed(obj);
+
+		for (PointF p : outline) {
+			if (GeometryUtil.pointInsidePolygon(p.x, p.y, region)) {
+				return true;
+			}
+
+		}
+
+		// Region may lie completely inside a closed object
+		if (closed && GeometryUtil.pointInsidePolygon(region.get(0).x, region.get(0).y, outline)) {
+			return true;
+		}
+
+		return GeometryUtil.polylinesIntersect(outline, closed, region, true);
+	}
+
+
+	/**
+	 *
+	 * @param obj
+	 * @param region Closed polygon, in original coordinate system
+	 * @return Whether obj lies completely inside region
+	 */
+	public static boolean containedInRegion(CanvasObject obj, List<PointF> region) {
+		List<PointF> outline = getOutline(obj);
+
+		if (outline == null || outline.size() == 0) {
+			return false;
+		}
+
+		for (PointF p : outline) {
+			if (!GeometryUtil.pointInsidePolygon(p.x, p.y, region)) {
+				return false;
+			}
+
+		}
+
+		// All vertices inside, but a concave region may still cut through an edge
+		return !GeometryUtil.polylinesIntersect(outline, isClosed(obj), region, true);
+	}
+
+
+	/**
+	 *
+	 * @param obj
+	 * @return Vertices of obj's outline in original coordinate system (bound corners for
+	 *         objects other than CanvasPoly), null if obj has no finite bound
+	 */
+	private static List<PointF> getOutline(CanvasObject obj) {
+		if (obj instanceof CanvasPoly) {
+			return ((CanvasPoly)obj).vertices;
+		}
+
+		RectF bound = new RectF();
+
+		if (!obj.getBound(bound)) {
+			return null;
+		}
+
+		List<PointF> res = new ArrayList<>(4);
+		res.add(new PointF(bound.left, bound.top));
+		res.add(new PointF(bound.right, bound.top));
+		res.add(new PointF(bound.right, bound.bottom));
+		res.add(new PointF(bound.left, bound.bottom));
+
+		return res;
+	}
+
+
+	private static boolean isClosed(CanvasObject obj) {
+		return !(obj instanceof CanvasPolyline);
+	}
+
+}
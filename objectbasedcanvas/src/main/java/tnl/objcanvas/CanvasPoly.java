@@ -1,14 +1,16 @@
 package tnl.objcanvas;
 
 
-import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.PointF;
+import android.graphics.RectF;
 import android.support.annotation.NonNull;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -16,6 +18,15 @@ import java.util.List;
  */
 
 public abstract class CanvasPoly implements CanvasObject {
+	// Polys with at most this many vertices are always drawn at full detail
+	public static final int LOD_MIN_VERTICES = 64;
+
+	// Simplification tolerances, in view pixels. Idle tolerance is below what can be seen
+	public static final float LOD_IDLE_TOLERANCE_PX = 0.5f;
+	public static final float LOD_ANIMATION_TOLERANCE_PX = 2f;
+
+
+
 	public float lineWidth = DrawingUtil.DEFAULT_LINEWIDTH;
 	public int lineColor = DrawingUtil.DEFAULT_LINECOLOR;
 
@@ -27,14 +38,149 @@ public abstract class CanvasPoly implements CanvasObject {
 
 	public ArrayList<PointF> vertices = new ArrayList<>();
 
+	private AtomicLong version = new AtomicLong();
 
-	public boolean needLazyUpdate() {
-		return false;
+	private Object boundSyncObj = new Object();
+	private RectF bound = new RectF();
+	private long boundVersion = -1;
+
+	// Level-of-detail cache: Douglas-Peucker importance of each vertex, and simplified
+	// vertex lists keyed by tolerance exponent (tolerance = 2^key, in original units)
+	private Object lodSyncObj = new Object();
+	private float[] lodImportance = null;
+	private HashMap<Integer, List<PointF>> lodLevels = new HashMap<>();
+	private long lodVersion = -1;
+
+
+
+	/**
+	 * Fields of this object are public, so this method must be called after modifying
+	 * any of them (vertices included), so that caches depending on the version are refreshed
+	 */
+	public void markChanged() {
+		version.incrementAndGet();
+	}
+
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+
+	@Override
+	public boolean getBound(RectF res) {
+		synchronized (boundSyncObj) {
+			long curVersion = version.get();
+
+			if (boundVersion != curVersion) {
+				RectF newBound = GeometryUtil.getBound(vertices);
+
+				if (Float.isNaN(newBound.left)) {
+					// No vertex, nothing to draw
+					bound.set(0, 0, 0, 0);
+				} else {
+					bound.set(newBound);
+				}
+
+				boundVersion = curVersion;
+			}
+
+			res.set(bound);
+		}
+
+		return true;
 	}
 
 
-	public void lazyUpdate(Matrix matView, int viewWidth, int viewHeight) {
+	/**
+	 * Simplified vertices for drawing at the view's current scale. Levels are computed
+	 * once per version, at power-of-2 tolerances (rounded down, so a level is never
+	 * coarser than asked for). Full detail is returned when the view is zoomed in
+	 * enough for every vertex to matter
+	 *
+	 * @param matViewAnalyzer
+	 * @param isOnAnimation If true, a coarser level is used
+	 * @param keepVertexPoints If true and not animating, full detail is returned, so
+	 *                         that every vertex point is drawn
+	 * @return vertices itself, or a simplified list sharing vertices' points
+	 */
+	public List<PointF> getLodVertices(
+		ViewMatrixAnalyzer matViewAnalyzer, boolean isOnAnimation, boolean keepVertexPoints
+	) {
+		if (vertices.size() <= LOD_MIN_VERTICES || (keepVertexPoints && !isOnAnimation)) {
+			return vertices;
+		}
+
+		float tolerancePx = (isOnAnimation ? LOD_ANIMATION_TOLERANCE_PX : LOD_IDLE_TOLERANCE_PX);
+		float tolerance = tolerancePx / matViewAnalyzer.getScale();
+
+		if (!(tolerance > 0) || Float.isInfinite(tolerance)) {
+			return vertices;
+		}
+
+		int key = (int)Math.floor(Math.log(tolerance) / Math.log(2));
 
+		synchronized (lodSyncObj) {
+			long curVersion = version.get();
+
+			if (lodVersion != curVersion) {
+				lodImportance = GeometryUtil.douglasPeuckerImportance(vertices);
+				lodLevels.clear();
+				lodVersion = curVersion;
+			}
+
+			List<PointF> level = lodLevels.get(key);
+
+			if (level == null) {
+				level = buildLodLevel((float)Math.pow(2, key));
+				lodLevels.put(key, level);
+			}
+
+			return level;
+		}
+
+	}
+
+
+	/**
+	 * Caller must hold lodSyncObj's monitor
+	 */
+	private List<PointF> buildLodLevel(float tolerance) {
+		int n = Math.min(vertices.size(), lodImportance.length);
+		int cnt = 0;
+
+		for (int i = 0; i < n; ++i) {
+			if (lodImportance[i] > tolerance) {
+				++cnt;
+			}
+
+		}
+
+		if (cnt == vertices.size()) {
+			return vertices;
+		}
+
+		ArrayList<PointF> res = new ArrayList<>(cnt);
+
+		for (int i = 0; i < n; ++i) {
+			if (lodImportance[i] > tolerance) {
+				res.add(vertices.get(i));
+			}
+
+		}
+
+		return res;
+	}
+
+
+	protected boolean isVertexPointDrawn() {
+		return vertexPointSize > 0 && DrawingUtil.alpha(vertexPointColor) != 0;
+	}
+
+
+	public boolean needLazyUpdate() {
+		return false;
 	}
 
 }
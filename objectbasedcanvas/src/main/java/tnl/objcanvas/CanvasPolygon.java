@@ -5,6 +5,7 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PointF;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
 
 import java.util.Iterator;
@@ -26,7 +27,8 @@ public class CanvasPolygon extends CanvasPoly {
 		int appliedFillColor = fillColor;
 
 		DrawingUtil.drawPoly(
-			matViewAnalyzer.mapOriginalToViewPoint(vertices),
+			getLodVertices(matViewAnalyzer, isOnAnimation, isVertexPointDrawn()),
+			matViewAnalyzer,
 			appliedFillColor,
 			lineWidth, lineColor, vertexPointSize, vertexPointColor,
 			firstVertexMarkColor, firstVertexMarkExtraRatio,
@@ -37,7 +39,8 @@ public class CanvasPolygon extends CanvasPoly {
 
 
 	public void lazyUpdate(
-		ViewMatrixAnalyzer matAnalyzer, int viewWidth, int viewHeight
+		ViewMatrixAnalyzer matAnalyzer, int viewWidth, int viewHeight,
+		CancellationSignal cancellationSignal
 	) {
 
 	}
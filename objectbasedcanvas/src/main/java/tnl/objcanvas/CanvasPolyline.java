@@ -4,6 +4,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.PointF;
+import android.os.CancellationSignal;
 
 import java.util.Arrays;
 
@@ -18,7 +19,8 @@ public class CanvasPolyline extends CanvasPoly {
 	) {
 
 		DrawingUtil.drawPoly(
-			matViewAnalyzer.mapOriginalToViewPoint(vertices),
+			getLodVertices(matViewAnalyzer, isOnAnimation, isVertexPointDrawn()),
+			matViewAnalyzer,
 			DrawingUtil.NONECOLOR,
 			lineWidth, lineColor,
 			vertexPointSize, vertexPointColor,
@@ -30,7 +32,8 @@ public class CanvasPolyline extends CanvasPoly {
 
 
 	public void lazyUpdate(
-		ViewMatrixAnalyzer matAnalyzer, int viewWidth, int viewHeight
+		ViewMatrixAnalyzer matAnalyzer, int viewWidth, int viewHeight,
+		CancellationSignal cancellationSignal
 	) {
 
 	}
@@ -9,10 +9,13 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PointF;
 import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.CancellationSignal;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 
@@ -79,6 +82,11 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 	private Bitmap curBitmap = null;
 	private Matrix curPositioningMatrix = new Matrix();
 
+	// Reused by draw, which is only called by the drawing pass
+	private final Matrix matDrawCombined = new Matrix();
+
+	private AtomicLong version = new AtomicLong();
+
 
 
 	public boolean setInputStream(InputStream input) {
@@ -110,6 +118,8 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 
 		);
 
+		version.incrementAndGet();
+
 		return true;
 	}
 
@@ -132,6 +142,7 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 			decoder.recycle();
 		}
 
+		version.incrementAndGet();
 	}
 
 
@@ -163,6 +174,8 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 			this.posX = x;
 		}
 
+		version.incrementAndGet();
+
 		return success;
 	}
 
@@ -185,6 +198,8 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 			this.posY = y;
 		}
 
+		version.incrementAndGet();
+
 		return success;
 	}
 
@@ -200,13 +215,13 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 		}
 
 		Bitmap curBitmapCpy;
-		Matrix matCombined;
+		Matrix matCombined = matDrawCombined;
 		Matrix matView = matViewAnalyzer.get();
 
 		synchronized (curBitmapSynObj) {
 			curBitmapCpy = curBitmap;
 
-			matCombined = new Matrix(curPositioningMatrix);
+			matCombined.set(curPositioningMatrix);
 		}
 
 		if (curBitmapCpy == null) {
@@ -230,16 +245,114 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 	}
 
 
+	/**
+	 * Draw the part of the image seen by a viewWidth x viewHeight view, decoded for
+	 * this call only, at the resolution the view needs. Unlike draw(), this neither
+	 * uses nor modifies what lazyUpdate() decoded, so it can be called from any thread,
+	 * e.g. to export the scene at a higher resolution than the screen's
+	 *
+	 * @param canvas
+	 * @param matViewAnalyzer
+	 * @param viewWidth
+	 * @param viewHeight
+	 */
+	public void drawDetached(
+		Canvas canvas, ViewMatrixAnalyzer matViewAnalyzer, int viewWidth, int viewHeight
+	) {
+		BitmapRegionDecoder decoderCpy = decoder;
+
+		if (isIoError() || isNone() || decoderCpy == null) {
+			return;
+		}
+
+		float posX, posY;
+
+		synchronized (posXYSyncObj) {
+			posX = this.posX;
+			posY = this.posY;
+		}
+
+		RectF viewBound = matViewAnalyzer.mapViewToOriginalBound(
+			0, 0, viewWidth, viewHeight, null
+		);
+
+		int fromX = Math.max(0, (int)Math.floor(viewBound.left - posX));
+		int fromY = Math.max(0, (int)Math.floor(viewBound.top - posY));
+		int toX = Math.min(imgWidth, (int)Math.ceil(viewBound.right - posX));
+		int toY = Math.min(imgHeight, (int)Math.ceil(viewBound.bottom - posY));
+
+		float viewScale = matViewAnalyzer.getScale();
+
+		if (fromX >= toX || fromY >= toY || !(viewScale > 0)) {
+			return;
+		}
+
+		// Largest power of 2 still giving at least one decoded pixel per view pixel
+		int sampleSize = 1;
+
+		while (sampleSize * 2 * viewScale <= 1) {
+			sampleSize *= 2;
+		}
+
+		BitmapFactory.Options ops = new BitmapFactory.Options();
+		ops.inSampleSize = sampleSize;
+
+		Bitmap region = decoderCpy.decodeRegion(new Rect(fromX, fromY, toX, toY), ops);
+
+		if (region == null) {
+			return;
+		}
+
+		Matrix mat = new Matrix();
+		mat.postScale(
+			(toX - fromX) / (float)region.getWidth(),
+			(toY - fromY) / (float)region.getHeight()
+		);
+		mat.postTranslate(posX + fromX, posY + fromY);
+		mat.postConcat(matViewAnalyzer.get());
+
+		canvas.drawBitmap(region, mat, null);
+
+		region.recycle();
+	}
+
+
+	@Override
+	public boolean getBound(RectF res) {
+		synchronized (posXYSyncObj) {
+			res.set(posX, posY, posX + imgWidth, posY + imgHeight);
+		}
+
+		return true;
+	}
+
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+
+
 	@Override
 	public boolean needLazyUpdate() {
 		return true;
 	}
 
 
+	/**
+	 * Re-decode the image region (and resolution) needed by the view, if the current one
+	 * doesn't cover it. Abandoned, keeping the current bitmap, if cancellationSignal is
+	 * canceled before the new region is installed
+	 */
 	@Override
 	public void lazyUpdate(
-		ViewMatrixAnalyzer matViewAnalyzer, int viewWidth, int viewHeight
+		ViewMatrixAnalyzer matViewAnalyzer, int viewWidth, int viewHeight,
+		CancellationSignal cancellationSignal
 	) {
+		if (cancellationSignal.isCanceled()) {
+			return;
+		}
+
 		// WARNING: These local variables have SAME names with class variables
 		float posX, posY;
 
@@ -339,6 +452,28 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 			newLogDecodeScale = maxLogDecodeScale;
 		}
 
+		if (cancellationSignal.isCanceled()) {
+			return;
+		}
+
+		// Decoded outside of curBitmapSynObj, so drawing isn't blocked meanwhile
+		BitmapFactory.Options ops = new BitmapFactory.Options();
+		ops.inSampleSize = (int)Math.pow(2, newLogDecodeScale);
+
+		Bitmap newBitmap = decoder.decodeRegion(
+			new Rect(newRegionFromX, newRegionFromY, newRegionToX, newRegionToY),
+			ops
+		);
+
+		// Decoded for a view which is gone, the next update will decode for the new one
+		if (cancellationSignal.isCanceled()) {
+			if (newBitmap != null) {
+				newBitmap.recycle();
+			}
+
+			return;
+		}
+
 		this.logDecodeScale = (int)newLogDecodeScale;
 
 		synchronized (curBitmapSynObj) {
@@ -356,16 +491,11 @@ public class CanvasResponsiveBitmap implements CanvasObject {
 				posY + this.regionFromY
 			);
 
-			BitmapFactory.Options ops = new BitmapFactory.Options();
-			ops.inSampleSize = (int)Math.pow(2, logDecodeScale);
-
-			this.curBitmap = decoder.decodeRegion(
-				new Rect(regionFromX, regionFromY, regionToX, regionToY),
-				ops
-			);
-
+			this.curBitmap = newBitmap;
 		}
 
+		version.incrementAndGet();
+
 	}
 
 
@@ -0,0 +1,199 @@
+package tnl.objcanvas;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+
+/**
+ * Collects per-frame and per-object-type drawing statistics.
+ *
+ * Recording methods (beginFrame, recordObjectDrawn, ..., endFrame) must only be called
+ * by the drawing pass, and don't allocate once every object type has been seen.
+ * Per-frame values are published into a fixed-size ring buffer at the end of each
+ * frame, under the profiler's monitor, so snapshot() can be called from any thread
+ */
+class DrawProfiler {
+	public static final int DEFAULT_CAPACITY = 120;
+
+
+
+	// Ring buffer of frames. Guarded by this
+	private final long[] frameStartNanos;
+	private final long[] frameDurationNanos;
+	private final int[] frameObjectsDrawn;
+	private final int[] frameObjectsSkipped;
+	private final boolean[] frameOnAnimation;
+	private int frameNext = 0;
+	private int frameCount = 0;
+
+	// Insertions guarded by this, accumulators' totals too
+	private final HashMap<Class<?>, TypeAccumulator> mapTypeAccumulator = new HashMap<>();
+
+	// Current frame. Only touched by the drawing pass
+	private long curStartNanos = 0;
+	private int curObjectsDrawn = 0;
+	private int curObjectsSkipped = 0;
+	private final ArrayList<TypeAccumulator> curTouchedTypes = new ArrayList<>();
+	// Cache of the last looked up type, as consecutive objects often share it
+	private TypeAccumulator lastAccumulator = null;
+
+
+
+	public DrawProfiler(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+
+		frameStartNanos = new long[capacity];
+		frameDurationNanos = new long[capacity];
+		frameObjectsDrawn = new int[capacity];
+		frameObjectsSkipped = new int[capacity];
+		frameOnAnimation = new boolean[capacity];
+	}
+
+
+	public void beginFrame() {
+		curStartNanos = System.nanoTime();
+		curObjectsDrawn = 0;
+		curObjectsSkipped = 0;
+	}
+
+
+	public void recordObjectSkipped() {
+		++curObjectsSkipped;
+	}
+
+
+	public void recordObjectDrawn(CanvasObject obj, long drawNanos) {
+		++curObjectsDrawn;
+
+		Class<?> type = obj.getClass();
+		TypeAccumulator acc = lastAccumulator;
+
+		if (acc == null || acc.type != type) {
+			acc = mapTypeAccumulator.get(type);
+
+			if (acc == null) {
+				acc = new TypeAccumulator(type);
+
+				synchronized (this) {
+					mapTypeAccumulator.put(type, acc);
+				}
+
+			}
+
+			lastAccumulator = acc;
+		}
+
+		if (acc.pendingCount == 0) {
+			curTouchedTypes.add(acc);
+		}
+
+		++acc.pendingCount;
+		acc.pendingNanos += drawNanos;
+	}
+
+
+	/**
+	 *
+	 * @return Duration of the frame, in nanoseconds
+	 */
+	public long endFrame(boolean isOnAnimation) {
+		long duration = System.nanoTime() - curStartNanos;
+
+		synchronized (this) {
+			frameStartNanos[frameNext] = curStartNanos;
+			frameDurationNanos[frameNext] = duration;
+			frameObjectsDrawn[frameNext] = curObjectsDrawn;
+			frameObjectsSkipped[frameNext] = curObjectsSkipped;
+			frameOnAnimation[frameNext] = isOnAnimation;
+
+			frameNext = (frameNext + 1) % frameStartNanos.length;
+			frameCount = Math.min(frameCount + 1, frameStartNanos.length);
+
+			for (int i = 0; i < curTouchedTypes.size(); ++i) {
+				TypeAccumulator acc = curTouchedTypes.get(i);
+
+				acc.totalCount += acc.pendingCount;
+				acc.totalNanos += acc.pendingNanos;
+				acc.pendingCount = 0;
+				acc.pendingNanos = 0;
+			}
+
+		}
+
+		curTouchedTypes.clear();
+
+		return duration;
+	}
+
+
+	public int getObjectsDrawn() {
+		return curObjectsDrawn;
+	}
+
+
+	public int getObjectsSkipped() {
+		return curObjectsSkipped;
+	}
+
+
+	public synchronized CanvasDrawProfile snapshot() {
+		List<CanvasDrawProfile.FrameStats> frames = new ArrayList<>(frameCount);
+		int capacity = frameStartNanos.length;
+
+		for (int i = 0; i < frameCount; ++i) {
+			int idx = (frameNext - frameCount + i + capacity) % capacity;
+
+			frames.add(
+				new CanvasDrawProfile.FrameStats(
+					frameStartNanos[idx], frameDurationNanos[idx],
+					frameObjectsDrawn[idx], frameObjectsSkipped[idx],
+					frameOnAnimation[idx]
+				)
+			);
+
+		}
+
+		List<CanvasDrawProfile.ObjectTypeStats> types = new ArrayList<>();
+
+		for (TypeAccumulator acc : mapTypeAccumulator.values()) {
+			if (acc.totalCount > 0) {
+				types.add(
+					new CanvasDrawProfile.ObjectTypeStats(acc.type, acc.totalCount, acc.totalNanos)
+				);
+
+			}
+
+		}
+
+		return new CanvasDrawProfile(frames, types);
+	}
+
+
+
+
+
+
+	private static class TypeAccumulator {
+		public final Class<?> type;
+
+		// Current frame, only touched by the drawing pass
+		public long pendingCount = 0;
+		public long pendingNanos = 0;
+
+		// Guarded by the profiler's monitor
+		public long totalCount = 0;
+		public long totalNanos = 0;
+
+
+
+		public TypeAccumulator(Class<?> type) {
+			this.type = type;
+		}
+
+	}
+
+}
@@ -34,6 +34,36 @@ public class DrawingUtil {
 
 
 
+	/**
+	 *
+	 * @param color
+	 * @return color's alpha, as Color.alpha() returns it. Computed in place, so that the
+	 *         batching decisions also hold in host unit tests, where Color is stubbed
+	 */
+	static int alpha(int color) {
+		return color >>> 24;
+	}
+
+
+
+	// Per-thread buffers reused by every drawing call, so that steady-state drawing
+	// doesn't allocate. Drawing calls don't nest, so one of each per thread is enough
+	private static final ThreadLocal<float[][]> scratchVertices = new ThreadLocal<float[][]>() {
+		@Override
+		protected float[][] initialValue() {
+			return new float[][] {new float[64]};
+		}
+	};
+
+	private static final ThreadLocal<Path> scratchPath = new ThreadLocal<Path>() {
+		@Override
+		protected Path initialValue() {
+			return new Path();
+		}
+	};
+
+
+
 	public static void drawLines(
 		float[] vertices,
 		float lineWidth, int lineColor,
@@ -151,16 +181,33 @@ public class DrawingUtil {
 	public static void fillPolygon(
 		float[] vertices, int fillColor, Canvas canvas, Paint sharedPaint
 	) {
-		if (vertices.length < 6) {
+		fillPolygon(vertices, vertices.length, fillColor, canvas, sharedPaint);
+	}
+
+
+	/**
+	 *
+	 * @param vertices
+	 * @param length    Number of values of vertices to use
+	 * @param fillColor
+	 * @param canvas
+	 * @param sharedPaint
+	 */
+	public static void fillPolygon(
+		float[] vertices, int length, int fillColor, Canvas canvas, Paint sharedPaint
+	) {
+		length = Math.min(length, vertices.length);
+		length -= length % 2;
+
+		if (length < 6) {
 			return;
 		}
 
-		Path path = new Path();
+		Path path = scratchPath.get();
+		path.rewind();
 
 		path.moveTo(vertices[0], vertices[1]);
 
-		int length = vertices.length - vertices.length % 2;
-
 		for (int i = 2; i < length; i += 2) {
 			path.lineTo(vertices[i], vertices[i + 1]);
 		}
@@ -199,23 +246,89 @@ public class DrawingUtil {
 			return;
 		}
 
-		if (vertices.length == 0) {
+		drawPoly(
+			vertices, vertices.length,
+			fillColor,
+			lineWidth, lineColor, pointSize, pointColor,
+			firstVertexMarkColor, firstVertexLineRatio,
+			canvas, sharedPaint
+		);
+
+	}
+
+
+	/**
+	 * Map vertices (in original coordinate system) to view with matViewAnalyzer, into
+	 * a per-thread buffer, and draw them. Steady-state calls don't allocate
+	 */
+	public static void drawPoly(
+		List<PointF> vertices, ViewMatrixAnalyzer matViewAnalyzer,
+		int fillColor,
+		float lineWidth, int lineColor, float pointSize, int pointColor,
+		int firstVertexMarkColor, float firstVertexLineRatio,
+		Canvas canvas, Paint sharedPaint
+	) {
+		if (vertices == null) {
+			return;
+		}
+
+		float[][] holder = scratchVertices.get();
+		float[] viewVertices = matViewAnalyzer.mapOriginalToViewPoint(vertices, holder[0]);
+
+		// Keep the grown buffer for next calls
+		holder[0] = viewVertices;
+
+		drawPoly(
+			viewVertices, vertices.size() * 2,
+			fillColor,
+			lineWidth, lineColor, pointSize, pointColor,
+			firstVertexMarkColor, firstVertexLineRatio,
+			canvas, sharedPaint
+		);
+
+	}
+
+
+	/**
+	 *
+	 * @param vertices
+	 * @param length                Number of values of vertices to use
+	 * @param fillColor             Set alpha channel to 0 to indicate not a polygon
+	 * @param firstVertexMarkColor  Set alpha channel to 0 to indicate not marking first vertex
+	 * @param firstVertexLineRatio
+	 * @param lineWidth
+	 * @param lineColor
+	 * @param pointSize
+	 * @param pointColor
+	 * @param canvas
+	 * @param sharedPaint
+	 */
+	public static void drawPoly(
+		float[] vertices, int length,
+		int fillColor,
+		float lineWidth, int lineColor, float pointSize, int pointColor,
+		int firstVertexMarkColor, float firstVertexLineRatio,
+		Canvas canvas, Paint sharedPaint
+	) {
+		length = Math.min(length, vertices.length);
+
+		if (length <= 0) {
 			return;
 		}
 
-		int verticesRealLength = vertices.length - vertices.length % 2;
+		int verticesRealLength = length - length % 2;
 
 		// If there are less than 3 vertices, then this can't be a polygon
 		if (verticesRealLength < 6) {
 			fillColor = NONECOLOR;
 		}
 
-		fillPolygon(vertices, fillColor, canvas, sharedPaint);
+		fillPolygon(vertices, verticesRealLength, fillColor, canvas, sharedPaint);
 
 		if (Color.alpha(firstVertexMarkColor) == 0) {
 			// Don't have to mark first vertex
 
-			drawLines(vertices, lineWidth, lineColor, canvas, sharedPaint);
+			drawLines(vertices, 0, verticesRealLength, lineWidth, lineColor, canvas, sharedPaint);
 
 			if (Color.alpha(fillColor) != 0) {
 				drawLine(
@@ -229,7 +342,7 @@ public class DrawingUtil {
 
 			}
 
-			drawPoints(vertices, pointSize, pointColor, canvas, sharedPaint);
+			drawPoints(vertices, 0, verticesRealLength, pointSize, pointColor, canvas, sharedPaint);
 
 		} else if (verticesRealLength > 0) {
 			// Have to mark first vertex. This is only possible if vertices has at least 1 point
@@ -249,7 +362,7 @@ public class DrawingUtil {
 				vertices[0] = extraFirstX;
 				vertices[1] = extraFirstY;
 
-				drawLines(vertices, lineWidth, lineColor, canvas, sharedPaint);
+				drawLines(vertices, 0, verticesRealLength, lineWidth, lineColor, canvas, sharedPaint);
 
 				// Draw the last-to-first line if fillColor is defined (meaning that
 				// a polygon is intended to draw)
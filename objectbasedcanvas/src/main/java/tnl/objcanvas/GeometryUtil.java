@@ -75,6 +75,136 @@ public class GeometryUtil {
 	}
 
 
+	public static float distancePointToSegment(
+		float x, float y,
+		float ax, float ay, float bx, float by
+	) {
+		float abx = bx - ax;
+		float aby = by - ay;
+		float lengthSquared = abx * abx + aby * aby;
+
+		if (lengthSquared < EPS) {
+			return distancePointToPoint(x, y, ax, ay);
+		}
+
+		// Parameter of the projection of (x, y) on AB, clamped into the segment
+		float t = ((x - ax) * abx + (y - ay) * aby) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+
+		return distancePointToPoint(x, y, ax + t * abx, ay + t * aby);
+	}
+
+
+	/**
+	 *
+	 * @param x
+	 * @param y
+	 * @param vertices
+	 * @param closed    If true, the last-to-first edge is also considered
+	 * @return Distance from (x, y) to the nearest edge, POSITIVE_INFINITY if vertices is
+	 *         null or empty
+	 */
+	public static float distancePointToPolyline(
+		float x, float y, List<PointF> vertices, boolean closed
+	) {
+		if (vertices == null || vertices.size() == 0) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		int n = vertices.size();
+
+		if (n == 1) {
+			PointF p = vertices.get(0);
+
+			return distancePointToPoint(x, y, p.x, p.y);
+		}
+
+		float res = Float.POSITIVE_INFINITY;
+		int edgeCount = (closed ? n : n - 1);
+
+		for (int i = 0; i < edgeCount; ++i) {
+			PointF a = vertices.get(i);
+			PointF b = vertices.get((i + 1) % n);
+
+			res = Math.min(res, distancePointToSegment(x, y, a.x, a.y, b.x, b.y));
+		}
+
+		return res;
+	}
+
+
+	/**
+	 * Douglas-Peucker importance of each vertex of an open polyline: a vertex is kept
+	 * by a Douglas-Peucker simplification with tolerance t iff its importance is
+	 * greater than t. The first and last vertices have POSITIVE_INFINITY importance
+	 *
+	 * @param vertices
+	 * @return Importance of each vertex, in the same unit as vertices' coordinates
+	 */
+	public static float[] douglasPeuckerImportance(List<PointF> vertices) {
+		int n = (vertices == null ? 0 : vertices.size());
+		float[] res = new float[n];
+
+		if (n == 0) {
+			return res;
+		}
+
+		res[0] = Float.POSITIVE_INFINITY;
+		res[n - 1] = Float.POSITIVE_INFINITY;
+
+		// Explicit stack of (start, end) index pairs, to avoid deep recursion on
+		// degenerate inputs
+		int[] stack = new int[64];
+		int top = 0;
+
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+
+		while (top > 0) {
+			int end = stack[--top];
+			int start = stack[--top];
+
+			if (end - start < 2) {
+				continue;
+			}
+
+			PointF a = vertices.get(start);
+			PointF b = vertices.get(end);
+
+			int maxIndex = start + 1;
+			float maxDistance = -1;
+
+			for (int i = start + 1; i < end; ++i) {
+				PointF p = vertices.get(i);
+				float d = distancePointToSegment(p.x, p.y, a.x, a.y, b.x, b.y);
+
+				if (d > maxDistance) {
+					maxDistance = d;
+					maxIndex = i;
+				}
+
+			}
+
+			// A vertex can't outlive the split which made its sub-polyline exist, so
+			// the kept set shrinks monotonically as the tolerance grows
+			res[maxIndex] = Math.min(maxDistance, Math.min(res[start], res[end]));
+
+			if (top + 4 > stack.length) {
+				int[] newStack = new int[stack.length * 2];
+				System.arraycopy(stack, 0, newStack, 0, top);
+				stack = newStack;
+			}
+
+			stack[top++] = start;
+			stack[top++] = maxIndex;
+			stack[top++] = maxIndex;
+			stack[top++] = end;
+		}
+
+		return res;
+	}
+
+
 	public static PointF makeVector(PointF start, PointF end) {
 		return new PointF(end.x - start.x, end.y - start.y);
 	}
@@ -210,6 +340,81 @@ public class GeometryUtil {
 	}
 
 
+	/**
+	 *
+	 * @return Whether segment AB and segment CD have at least one common point
+	 */
+	public static boolean segmentsIntersect(
+		float ax, float ay, float bx, float by,
+		float cx, float cy, float dx, float dy
+	) {
+		int sideC = pointSideToLine(ax, ay, bx, by, cx, cy);
+		int sideD = pointSideToLine(ax, ay, bx, by, dx, dy);
+		int sideA = pointSideToLine(cx, cy, dx, dy, ax, ay);
+		int sideB = pointSideToLine(cx, cy, dx, dy, bx, by);
+
+		if (sideC * sideD < 0 && sideA * sideB < 0) {
+			return true;
+		}
+
+		// Collinear or touching cases
+		return (sideC == 0 && pointInSegmentInclusive(cx, cy, ax, ay, bx, by))
+			|| (sideD == 0 && pointInSegmentInclusive(dx, dy, ax, ay, bx, by))
+			|| (sideA == 0 && pointInSegmentInclusive(ax, ay, cx, cy, dx, dy))
+			|| (sideB == 0 && pointInSegmentInclusive(bx, by, cx, cy, dx, dy));
+	}
+
+
+	/**
+	 *
+	 * @param a
+	 * @param closedA If true, the last-to-first edge of a is also considered
+	 * @param b
+	 * @param closedB If true, the last-to-first edge of b is also considered
+	 * @return Whether any edge of a intersects any edge of b
+	 */
+	public static boolean polylinesIntersect(
+		List<PointF> a, boolean closedA, List<PointF> b, boolean closedB
+	) {
+		if (a == null || b == null || a.size() < 2 || b.size() < 2) {
+			return false;
+		}
+
+		RectF boundB = getBound(b);
+
+		int nA = a.size();
+		int nB = b.size();
+		int edgeCountA = (closedA ? nA : nA - 1);
+		int edgeCountB = (closedB ? nB : nB - 1);
+
+		for (int i = 0; i < edgeCountA; ++i) {
+			PointF p0 = a.get(i);
+			PointF p1 = a.get((i + 1) % nA);
+
+			// Skip edges which can't reach b at all
+			if (
+				Math.max(p0.x, p1.x) < boundB.left || Math.min(p0.x, p1.x) > boundB.right
+				|| Math.max(p0.y, p1.y) < boundB.top || Math.min(p0.y, p1.y) > boundB.bottom
+			) {
+				continue;
+			}
+
+			for (int j = 0; j < edgeCountB; ++j) {
+				PointF q0 = b.get(j);
+				PointF q1 = b.get((j + 1) % nB);
+
+				if (segmentsIntersect(p0.x, p0.y, p1.x, p1.y, q0.x, q0.y, q1.x, q1.y)) {
+					return true;
+				}
+
+			}
+
+		}
+
+		return false;
+	}
+
+
 	public static void addListToListPointF(
 		List<PointF> source, List<PointF> destination
 	) {
@@ -288,6 +493,15 @@ public class GeometryUtil {
 	}
 
 
+	private static boolean pointInSegmentInclusive(
+		float x, float y,
+		float ax, float ay, float bx, float by
+	) {
+		return x >= Math.min(ax, bx) - EPS && x <= Math.max(ax, bx) + EPS
+			&& y >= Math.min(ay, by) - EPS && y <= Math.max(ay, by) + EPS;
+	}
+
+
 	/**
 	 * Check which side of the vector passing through (lx0, ly0) and (ly0, ly1)
 	 * that point (x, y) is located at
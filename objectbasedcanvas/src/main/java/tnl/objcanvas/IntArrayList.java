@@ -0,0 +1,58 @@
+package tnl.objcanvas;
+
+import java.util.Arrays;
+
+
+
+/**
+ * Growable list of primitive ints, meant to be reused across frames without boxing
+ */
+class IntArrayList {
+	private int[] values;
+	private int size = 0;
+
+
+
+	public IntArrayList() {
+		this(16);
+	}
+
+
+	public IntArrayList(int initialCapacity) {
+		values = new int[Math.max(initialCapacity, 1)];
+	}
+
+
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+
+		values[size++] = value;
+	}
+
+
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		}
+
+		return values[index];
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public void clear() {
+		size = 0;
+	}
+
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+}
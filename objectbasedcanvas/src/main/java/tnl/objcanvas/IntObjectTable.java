@@ -0,0 +1,237 @@
+package tnl.objcanvas;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+
+/**
+ * Open-addressing (linear probing) hash table from non-zero int keys to objects.
+ *
+ * Reads (get, containsKey) are lock-free and allocation-free. Writes are serialized
+ * on the table's monitor. A removed key leaves a tombstone (key kept, value null)
+ * which is dropped the next time the table is rehashed.
+ *
+ * A rehash sizes the table to at least 4 slots per live entry, and the table grows
+ * again once half of its slots are used, so each entry costs 2 to 4 slots in both
+ * the key and the value arrays
+ */
+class IntObjectTable<V> {
+	// Key 0 marks an empty slot, so it can't be used as a key
+	public static final int EMPTY_KEY = 0;
+
+	private static final int MIN_CAPACITY = 16;
+	// Load factor counts tombstones too
+	private static final float MAX_LOAD_FACTOR = 0.5f;
+
+
+
+	private volatile Slots<V> slots = new Slots<>(MIN_CAPACITY);
+
+	// Guarded by this
+	private int size = 0;
+
+
+
+	public V get(int key) {
+		Slots<V> cur = slots;
+
+		int idx = cur.indexOf(key);
+
+		if (idx < 0) {
+			return null;
+		}
+
+		return cur.values.get(idx);
+	}
+
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+
+	public synchronized int size() {
+		return size;
+	}
+
+
+	/**
+	 *
+	 * @param key
+	 * @param value Must not be null
+	 * @return Previous value of key, null if there is none
+	 */
+	public synchronized V put(int key, V value) {
+		if (key == EMPTY_KEY) {
+			throw new IllegalArgumentException("key cannot be " + EMPTY_KEY);
+		}
+
+		if (value == null) {
+			throw new IllegalArgumentException("value cannot be null");
+		}
+
+		Slots<V> cur = slots;
+		int idx = cur.indexOf(key);
+
+		if (idx >= 0) {
+			V prev = cur.values.get(idx);
+			cur.values.set(idx, value);
+
+			if (prev == null) {
+				++size;
+			}
+
+			return prev;
+		}
+
+		if (cur.used + 1 > cur.capacity() * MAX_LOAD_FACTOR) {
+			cur = rehash(size + 1);
+		}
+
+		cur.insertNew(key, value);
+		++size;
+
+		return null;
+	}
+
+
+	/**
+	 *
+	 * @param key
+	 * @return Removed value, null if key does not exist
+	 */
+	public synchronized V remove(int key) {
+		Slots<V> cur = slots;
+		int idx = cur.indexOf(key);
+
+		if (idx < 0) {
+			return null;
+		}
+
+		V prev = cur.values.get(idx);
+
+		if (prev != null) {
+			cur.values.set(idx, null);
+			--size;
+		}
+
+		return prev;
+	}
+
+
+	public synchronized void clear() {
+		slots = new Slots<>(MIN_CAPACITY);
+		size = 0;
+	}
+
+
+	/**
+	 * Build a new slot array sized for expectedSize live entries, copy live entries
+	 * into it and publish it. Readers still holding the old array keep seeing a
+	 * consistent (but stale) view
+	 */
+	private Slots<V> rehash(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+
+		// Half the maximum load, so that inserts after a rehash don't rehash right away
+		while (capacity * MAX_LOAD_FACTOR < expectedSize * 2) {
+			capacity <<= 1;
+		}
+
+		Slots<V> old = slots;
+		Slots<V> res = new Slots<>(capacity);
+
+		for (int i = 0; i < old.capacity(); ++i) {
+			V value = old.values.get(i);
+
+			if (value != null) {
+				res.insertNew(old.keys.get(i), value);
+			}
+
+		}
+
+		slots = res;
+
+		return res;
+	}
+
+
+
+
+
+
+	private static class Slots<V> {
+		public final AtomicIntegerArray keys;
+		public final AtomicReferenceArray<V> values;
+		public final int mask;
+
+		// Number of slots with a key, tombstones included. Only touched by writers
+		public int used = 0;
+
+
+
+		public Slots(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			values = new AtomicReferenceArray<>(capacity);
+			mask = capacity - 1;
+		}
+
+
+		public int capacity() {
+			return mask + 1;
+		}
+
+
+		/**
+		 *
+		 * @param key
+		 * @return Slot index of key, -1 if key has never been put into these slots
+		 */
+		public int indexOf(int key) {
+			int idx = hash(key) & mask;
+
+			while (true) {
+				int k = keys.get(idx);
+
+				if (k == key) {
+					return idx;
+				}
+
+				if (k == EMPTY_KEY) {
+					return -1;
+				}
+
+				idx = (idx + 1) & mask;
+			}
+
+		}
+
+
+		/**
+		 * key must not exist in these slots yet
+		 */
+		public void insertNew(int key, V value) {
+			int idx = hash(key) & mask;
+
+			while (keys.get(idx) != EMPTY_KEY) {
+				idx = (idx + 1) & mask;
+			}
+
+			// Value first, so a reader which sees the key also sees the value
+			values.set(idx, value);
+			keys.set(idx, key);
+
+			++used;
+		}
+
+
+		private static int hash(int key) {
+			int h = key * 0x9E3779B9;
+
+			return h ^ (h >>> 16);
+		}
+
+	}
+
+}
@@ -1,24 +1,49 @@
 package tnl.objcanvas;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PointF;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.MotionEvent;
+import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.RelativeLayout;
 
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 
@@ -37,9 +62,50 @@ public class ObjectBasedCanvas extends RelativeLayout {
 	public static final int FITBOUND_IF_ZOOMOUT = 2;
 	public static final int FITBOUND_ALWAYS = 3;
 
+	// Objects' lines and vertex points are drawn in view pixels, so an object whose
+	// original bound is slightly outside the view can still be partially visible.
+	// The visible region is enlarged by this amount (in view pixels) before culling
+	public static final float CULLING_MARGIN_PX = 64f;
 
+	// Layer which objects are added to when no layer is specified. Can't be removed
+	public static final String DEFAULT_LAYER = "default";
 
-	private MyUnderlyingCanvas viewUnderlyingCanvas;
+	// Selection modes of findObjectsInRect and findObjectsInLasso
+	public static final int SELECT_INTERSECTING = 1;
+	public static final int SELECT_CONTAINED = 2;
+
+	// Rendering backends. RENDER_BACKEND_VIEW draws in a View's onDraw, on the UI thread.
+	// RENDER_BACKEND_RENDER_THREAD draws into a TextureView, on a dedicated thread
+	public static final int RENDER_BACKEND_VIEW = 1;
+	public static final int RENDER_BACKEND_RENDER_THREAD = 2;
+
+	// Scene export: tiles are square, and the PNG is compressed with this deflate level
+	public static final int DEFAULT_EXPORT_TILE_SIZE = 256;
+	public static final int EXPORT_PNG_COMPRESSION_LEVEL = 6;
+
+	// Idle lazy update pool threads exit after this delay
+	public static final long LAZY_UPDATE_POOL_KEEPALIVE_SECONDS = 10;
+
+	// Predictive lazy updates: at most one request per interval during a gesture, for
+	// the view extrapolated this far ahead
+	public static final long PREDICTIVE_UPDATE_INTERVAL_MILLIS = 200;
+	public static final long PREDICTIVE_UPDATE_HORIZON_MILLIS = 300;
+
+
+
+	// MyUnderlyingCanvas or MyTextureCanvas, depending on renderBackend
+	private volatile View viewUnderlyingCanvas;
+	private int renderBackend = RENDER_BACKEND_VIEW;
+
+	// Non-null while a TextureView surface is available to the render thread
+	private volatile MyRenderThread renderThread = null;
+
+	// With RENDER_BACKEND_RENDER_THREAD, the editor is drawn by this view, above
+	// viewUnderlyingCanvas, on the UI thread which mutates the editor's state. Only
+	// touched by the UI thread
+	private MyEditorOverlay editorOverlay = null;
+	private final ViewMatrixAnalyzer editorOverlayMatViewAnalyzer = new ViewMatrixAnalyzer();
+	private final Paint editorOverlayPaint = new Paint();
 
 	private Object viewWidthHeightSynObj = new Object();
 	private int viewWidth = 0;
@@ -58,27 +124,115 @@ public class ObjectBasedCanvas extends RelativeLayout {
 
 	private AtomicInteger counterCanvasObj = new AtomicInteger();
 
-	private final Map<Integer, CanvasObjectHolder> mapIntObjHolder
-		= Collections.synchronizedMap(new HashMap<Integer, CanvasObjectHolder>());
-
-	private final SortedSet<PairZOrderId> setObjZOrder
-		= Collections.synchronizedSortedSet(new TreeSet<PairZOrderId>());
+	// > 0 while inside beginBatchUpdate() ... endBatchUpdate()
+	private AtomicInteger batchUpdateDepth = new AtomicInteger();
+	private volatile boolean batchInvalidatePending = false;
+
+	// Redraw requests are collapsed into at most one redraw per vsync. Dirty region
+	// (in view pixels) of the next redraw is guarded by redrawSyncObj
+	private final AtomicBoolean redrawScheduled = new AtomicBoolean(false);
+	private final Object redrawSyncObj = new Object();
+	private boolean redrawFullView = false;
+	private final Rect redrawDirtyRect = new Rect();
+	// Frame callbacks are posted from the main thread, whose Choreographer drains them
+	// whether the view is attached or not
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final MyVsyncRedrawCallback vsyncRedrawCallback = new MyVsyncRedrawCallback();
+	private final AtomicLong redrawRequestCount = new AtomicLong();
+	private final AtomicLong redrawPerformedCount = new AtomicLong();
+
+	// Lock-free reads, so the drawing pass never boxes ids nor waits for writers
+	private final IntObjectTable<CanvasObjectHolder> mapIntObjHolder
+		= new IntObjectTable<>();
+
+	// Layers by name. layers is the immutable list of all layers sorted by layer
+	// z-order, replaced (under layersSyncObj) whenever a layer is added or removed,
+	// and read by the drawing pass without lock.
+	// Each layer holds exactly its objects of mapIntObjHolder, in z-order
+	private final Object layersSyncObj = new Object();
+	private final HashMap<String, CanvasLayerHolder> mapNameLayer = new HashMap<>();
+	private volatile CanvasLayerHolder[] layers = new CanvasLayerHolder[0];
+	private int counterLayer = 0;
+
+	// Increased whenever anything drawn by any layer changes, including the list of
+	// layers and their visibility
+	private final AtomicLong sceneContentVersion = new AtomicLong();
 
 	private final SortedSet<Integer> setLazyUpdateObj
 		= Collections.synchronizedSortedSet(new TreeSet<Integer>());
 
-	private MyLazyUpdateThread thrLazyUpdate = new MyLazyUpdateThread();
+	// Original-space bounds of all bounded objects. Guarded by its own monitor
+	private final RTree objSpatialIndex = new RTree();
+
+	// Used only by the drawing pass (UI thread, or render thread with
+	// RENDER_BACKEND_RENDER_THREAD)
+	private final IntArrayList visibleObjIds = new IntArrayList();
+	private final RectF visibleBound = new RectF();
+	private final Rect clipBound = new Rect();
+	private int drawStamp = 0;
+	// Reused every frame, so that steady-state frames don't allocate
+	private final ViewMatrixAnalyzer frameMatViewAnalyzer = new ViewMatrixAnalyzer();
+	private final PolyDrawBatch polyDrawBatch = new PolyDrawBatch();
+
+	// Long-lived lazy update worker, started by the first request while the view is
+	// attached and stopped when it is detached. Requests made while detached are
+	// deferred to the next attach. Guarded by lazyUpdateSyncObj
+	private final Object lazyUpdateSyncObj = new Object();
+	private MyLazyUpdateThread thrLazyUpdate = null;
+	private boolean lazyUpdateAttached = false;
+	private boolean lazyUpdateDeferred = false;
+	// Signal of the view generation the current update pass is for. Taken and canceled
+	// by the first view change after the pass started
+	private final AtomicReference<CancellationSignal> lazyUpdateSignal
+		= new AtomicReference<>();
+	// Same for a predictive pass, which isn't canceled by gesture moves
+	private final AtomicReference<CancellationSignal> predictiveLazyUpdateSignal
+		= new AtomicReference<>();
+
+	// Mid-gesture lazy updates for the predicted view. Predictor, matrix and last
+	// request time are only touched by gesture callbacks (UI thread)
+	private volatile boolean predictiveLazyUpdateEnabled = false;
+	private final ViewMotionPredictor viewMotionPredictor = new ViewMotionPredictor();
+	private final Matrix predictedMatView = new Matrix();
+	private long lastPredictiveUpdateNanos = 0;
 
 	private boolean editing = false;
 
-	private CanvasEditor editor = null;
+	// Set and cleared by the UI thread, read by the drawing pass
+	private volatile CanvasEditor editor = null;
 	private OnCanvasGestureListener editorGestureListener = null;
 	private CanvasEditor.OnCancelListener editorGivenOnCancelListener = null;
 
 	private CanvasEditor.OnCancelListener canvasManagedOnCancelListener
 		= new MyEditorOnCancelListener();
 
-	private boolean isTouching = false;
+	private volatile boolean isTouching = false;
+
+	// If true, static objects are drawn by replaying retained display lists
+	private volatile boolean retainedDrawingEnabled = true;
+
+	// If true, consecutive polygons and polylines sharing a style are drawn together
+	private volatile boolean batchedDrawingEnabled = true;
+
+	// Gesture-time raster snapshot. Requested by gesture callbacks, captured by the
+	// first frame of the gesture. The snapshot state is only touched by the drawing pass
+	private volatile boolean gestureSnapshotEnabled = false;
+	private volatile boolean gestureSnapshotRequested = false;
+	private boolean gestureSnapshotActive = false;
+	private Bitmap gestureSnapshotBitmap = null;
+	private Canvas gestureSnapshotCanvas = null;
+	// matView at capture time, its inverse, and matView * inverse for the current frame
+	private final Matrix gestureSnapshotMatrix = new Matrix();
+	private final Matrix gestureSnapshotInverse = new Matrix();
+	private final Matrix gestureSnapshotDrawMatrix = new Matrix();
+	private final Paint gestureSnapshotPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	// Non-null while progressive rendering is enabled
+	private volatile ProgressiveRenderer progressiveRenderer = null;
+
+	// Non-null while draw profiling is enabled
+	private volatile DrawProfiler drawProfiler = null;
+	private volatile OnFrameDrawnListener onFrameDrawnListener = null;
 
 
 
@@ -120,10 +274,35 @@ public class ObjectBasedCanvas extends RelativeLayout {
 	 * @return id of the newly created object
 	 */
 	public int addObject(CanvasObject obj, int zOrder, boolean visible) {
+		return addObject(obj, zOrder, visible, DEFAULT_LAYER);
+	}
+
+
+	/**
+	 * Each call copies the layer's z-order list, so adding n objects one by one costs
+	 * O(n^2). Bulk loads must use addObjects(), which copies it once.
+	 * beginBatchUpdate() only coalesces invalidations, it doesn't avoid the copies
+	 *
+	 * @param obj
+	 * @param zOrder    z-order of obj inside its layer
+	 * @param visible
+	 * @param layerName Must be an existing layer
+	 * @return id of the newly created object
+	 */
+	public int addObject(
+		CanvasObject obj, int zOrder, boolean visible, String layerName
+	) {
+		CanvasLayerHolder layer = getLayerOrThrow(layerName);
+
 		int id = counterCanvasObj.incrementAndGet();
 
-		mapIntObjHolder.put(id, new CanvasObjectHolder(obj, zOrder, visible));
-		setObjZOrder.add(new PairZOrderId(zOrder, id));
+		CanvasObjectHolder holder = new CanvasObjectHolder(id, obj, zOrder, visible, layer);
+
+		mapIntObjHolder.put(id, holder);
+		updateSpatialIndex(id, holder);
+
+		layer.objZOrderIndex.put(id, zOrder, holder);
+		layer.markContentChanged();
 
 		if (obj.needLazyUpdate()) {
 			setLazyUpdateObj.add(id);
@@ -133,6 +312,200 @@ public class ObjectBasedCanvas extends RelativeLayout {
 	}
 
 
+	/**
+	 * Add many objects at once. Every internal structure is locked only once and
+	 * the canvas is invalidated only once, so this is much cheaper than calling
+	 * addObject() for each object
+	 *
+	 * @param objs
+	 * @param zOrder
+	 * @param visible
+	 * @return ids of the newly created objects, in the iteration order of objs
+	 */
+	public int[] addObjects(
+		Collection<? extends CanvasObject> objs, int zOrder, boolean visible
+	) {
+		return addObjects(objs, zOrder, visible, DEFAULT_LAYER);
+	}
+
+
+	/**
+	 * Same as addObjects(objs, zOrder, visible), but into the given layer
+	 *
+	 * @param objs
+	 * @param zOrder
+	 * @param visible
+	 * @param layerName Must be an existing layer
+	 * @return ids of the newly created objects, in the iteration order of objs
+	 */
+	public int[] addObjects(
+		Collection<? extends CanvasObject> objs, int zOrder, boolean visible,
+		String layerName
+	) {
+		CanvasLayerHolder layer = getLayerOrThrow(layerName);
+
+		int n = objs.size();
+
+		int[] ids = new int[n];
+		CanvasObjectHolder[] holders = new CanvasObjectHolder[n];
+
+		int cnt = 0;
+
+		for (CanvasObject obj : objs) {
+			if (obj == null) {
+				throw new IllegalArgumentException("objs cannot contain null");
+			}
+
+			ids[cnt] = counterCanvasObj.incrementAndGet();
+			holders[cnt] = new CanvasObjectHolder(ids[cnt], obj, zOrder, visible, layer);
+			holders[cnt].refreshBound();
+
+			++cnt;
+		}
+
+		synchronized (mapIntObjHolder) {
+			for (int i = 0; i < n; ++i) {
+				mapIntObjHolder.put(ids[i], holders[i]);
+			}
+
+		}
+
+		synchronized (objSpatialIndex) {
+			for (int i = 0; i < n; ++i) {
+				indexHolderBound(ids[i], holders[i]);
+			}
+
+		}
+
+		layer.objZOrderIndex.putAll(ids, zOrder, holders);
+		layer.markContentChanged();
+
+		synchronized (setLazyUpdateObj) {
+			for (int i = 0; i < n; ++i) {
+				if (holders[i].canvasObject.needLazyUpdate()) {
+					setLazyUpdateObj.add(ids[i]);
+				}
+
+			}
+
+		}
+
+		postInvalidateCanvas();
+
+		return ids;
+	}
+
+
+	/**
+	 * Remove many objects at once, locking every internal structure only once and
+	 * invalidating the canvas only once
+	 *
+	 * @param ids
+	 * @return number of ids that existed and have been removed
+	 */
+	public int removeObjects(int[] ids) {
+		CanvasObjectHolder[] holders = new CanvasObjectHolder[ids.length];
+		int removedCount = 0;
+
+		synchronized (mapIntObjHolder) {
+			for (int i = 0; i < ids.length; ++i) {
+				holders[i] = mapIntObjHolder.remove(ids[i]);
+
+				if (holders[i] != null) {
+					++removedCount;
+				}
+
+			}
+
+		}
+
+		if (removedCount == 0) {
+			return 0;
+		}
+
+		synchronized (objSpatialIndex) {
+			for (int i = 0; i < ids.length; ++i) {
+				if (holders[i] != null) {
+					objSpatialIndex.remove(ids[i]);
+				}
+
+			}
+
+		}
+
+		// One snapshot published per layer
+		HashMap<CanvasLayerHolder, IntArrayList> mapLayerIds = new HashMap<>();
+
+		for (int i = 0; i < ids.length; ++i) {
+			if (holders[i] != null) {
+				IntArrayList layerIds = mapLayerIds.get(holders[i].layer);
+
+				if (layerIds == null) {
+					layerIds = new IntArrayList();
+					mapLayerIds.put(holders[i].layer, layerIds);
+				}
+
+				layerIds.add(ids[i]);
+			}
+
+		}
+
+		for (Map.Entry<CanvasLayerHolder, IntArrayList> entry : mapLayerIds.entrySet()) {
+			int[] layerIds = entry.getValue().toArray();
+
+			entry.getKey().objZOrderIndex.removeAll(layerIds);
+			entry.getKey().markContentChanged();
+		}
+
+		// Not only if needLazyUpdate(): a concurrent setObject() may have changed it
+		synchronized (setLazyUpdateObj) {
+			for (int i = 0; i < ids.length; ++i) {
+				if (holders[i] != null) {
+					setLazyUpdateObj.remove(ids[i]);
+				}
+
+			}
+
+		}
+
+		postInvalidateCanvas();
+
+		return removedCount;
+	}
+
+
+	/**
+	 * Start a batch of modifications (setObject, setObjectVisible, setObjectZOrder, ...).
+	 * Until the matching endBatchUpdate(), postInvalidateCanvas() requests are only
+	 * recorded, and a single one is posted at the end. Batches can be nested
+	 */
+	public void beginBatchUpdate() {
+		batchUpdateDepth.incrementAndGet();
+	}
+
+
+	/**
+	 * End a batch started by beginBatchUpdate(). The outermost call posts one
+	 * invalidation if any was requested during the batch
+	 */
+	public void endBatchUpdate() {
+		int depth = batchUpdateDepth.decrementAndGet();
+
+		if (depth < 0) {
+			batchUpdateDepth.incrementAndGet();
+
+			throw new IllegalStateException("endBatchUpdate() without beginBatchUpdate()");
+		}
+
+		if (depth == 0 && batchInvalidatePending) {
+			batchInvalidatePending = false;
+
+			postInvalidateCanvas();
+		}
+
+	}
+
+
 	/**
 	 *
 	 * @param id
@@ -145,10 +518,16 @@ public class ObjectBasedCanvas extends RelativeLayout {
 		if (holder == null) {
 			return false;
 		} else {
-			if (holder.canvasObject.needLazyUpdate()) {
-				setLazyUpdateObj.remove(id);
+			synchronized (objSpatialIndex) {
+				objSpatialIndex.remove(id);
 			}
 
+			holder.layer.objZOrderIndex.remove(id);
+			holder.layer.markContentChanged();
+
+			// Not only if needLazyUpdate(): a concurrent setObject() may have changed it
+			setLazyUpdateObj.remove(id);
+
 			return true;
 		}
 
@@ -189,16 +568,54 @@ public class ObjectBasedCanvas extends RelativeLayout {
 		}
 
 		boolean prevNeedLazyUpdate = holder.canvasObject.needLazyUpdate();
+		RectF dirtyRegion = holder.getBoundCopy();
 
 		holder.canvasObject = obj;
+		updateSpatialIndex(id, holder);
+		holder.layer.markContentChanged();
 
 		if (obj.needLazyUpdate() && !prevNeedLazyUpdate) {
-			setLazyUpdateObj.add(id);
+			synchronized (setLazyUpdateObj) {
+				// removeObject() removes from mapIntObjHolder before setLazyUpdateObj, so
+				// a removed id is never added back
+				if (mapIntObjHolder.get(id) == holder) {
+					setLazyUpdateObj.add(id);
+				}
+
+			}
+
 		} else if (!obj.needLazyUpdate() && prevNeedLazyUpdate) {
 			setLazyUpdateObj.remove(id);
 		}
 
-		postInvalidateCanvas();
+		postInvalidateOriginalRegion(dirtyRegion, holder.getBoundCopy());
+
+		return true;
+	}
+
+
+	/**
+	 * Must be called after an object already added to the canvas is modified in place,
+	 * so that its bound is re-indexed and the canvas redrawn
+	 *
+	 * @param id
+	 * @return false if id does not exist
+	 */
+	public boolean notifyObjectChanged(int id) {
+		CanvasObjectHolder holder = mapIntObjHolder.get(id);
+
+		if (holder == null) {
+			return false;
+		}
+
+		if (holder.canvasObject.getVersion() != holder.indexedVersion) {
+			RectF dirtyRegion = holder.getBoundCopy();
+
+			updateSpatialIndex(id, holder);
+			holder.layer.markContentChanged();
+
+			postInvalidateOriginalRegion(dirtyRegion, holder.getBoundCopy());
+		}
 
 		return true;
 	}
@@ -239,8 +656,10 @@ public class ObjectBasedCanvas extends RelativeLayout {
 
 		if (holder.visible != visible) {
 			holder.visible = visible;
+			holder.layer.markContentChanged();
 
-			postInvalidateCanvas();
+			RectF dirtyRegion = holder.getBoundCopy();
+			postInvalidateOriginalRegion(dirtyRegion, dirtyRegion);
 		}
 
 		return true;
@@ -264,6 +683,8 @@ public class ObjectBasedCanvas extends RelativeLayout {
 
 
 	/**
+	 * Each call copies the layer's z-order list (O(n)), also within beginBatchUpdate().
+	 * To give many new objects the same z-order, pass it to addObjects() instead
 	 *
 	 * @param id
 	 * @return false if id does not exist
@@ -277,13 +698,17 @@ public class ObjectBasedCanvas extends RelativeLayout {
 
 		synchronized (holder.zOrderSyncObj) {
 			if (holder.zOrder != zOrder) {
-				setObjZOrder.remove(new PairZOrderId(holder.zOrder, id));
+				// Fails if the object has been removed concurrently, which must not
+				// bring it back into the index
+				if (!holder.layer.objZOrderIndex.setZOrder(id, zOrder)) {
+					return false;
+				}
 
 				holder.zOrder = zOrder;
+				holder.layer.markContentChanged();
 
-				setObjZOrder.add(new PairZOrderId(zOrder, id));
-
-				postInvalidateCanvas();
+				RectF dirtyRegion = holder.getBoundCopy();
+				postInvalidateOriginalRegion(dirtyRegion, dirtyRegion);
 			}
 
 		}
@@ -292,105 +717,532 @@ public class ObjectBasedCanvas extends RelativeLayout {
 	}
 
 
-	public boolean isEditing() {
-		return editing;
-	}
+	/**
+	 *
+	 * @param name
+	 * @param zOrder Layers are drawn in increasing z-order. DEFAULT_LAYER has z-order 0
+	 * @param cached If true, the layer is rendered into an offscreen bitmap which is
+	 *               reused as long as the layer's content and the view matrix do not
+	 *               change. Suitable for big, rarely changing layers
+	 * @return false if a layer with the same name has existed
+	 */
+	public boolean addLayer(String name, int zOrder, boolean cached) {
+		if (name == null) {
+			throw new IllegalArgumentException("name cannot be null");
+		}
 
+		synchronized (layersSyncObj) {
+			if (mapNameLayer.containsKey(name)) {
+				return false;
+			}
 
-	public int startEditorImmediatey(
-		CanvasEditor editor,
-		Object initData,
-		CanvasEditor.OnCancelListener onCancelListener
-	) {
-		if (this.editor != null) {
-			this.editor.cancelImmediately();
+			CanvasLayerHolder layer = new CanvasLayerHolder(name, zOrder, counterLayer++);
+			layer.cached = cached;
+
+			mapNameLayer.put(name, layer);
+			rebuildLayerList();
 		}
 
-		clearEditor();
+		postInvalidateCanvas();
 
-		int status = editor.startByCanvas(
-			this,
-			initData,
-			canvasManagedOnCancelListener
-		);
+		return true;
+	}
 
-		if (status == CanvasEditor.STARTED_SUCCESS) {
-			this.editor = editor;
-			this.editorGestureListener = editor.getGestureListener();
-			this.editorGivenOnCancelListener = onCancelListener;
 
-			editing = true;
+	/**
+	 * Remove a layer together with all of its objects
+	 *
+	 * @param name
+	 * @return false if layer does not exist
+	 */
+	public boolean removeLayer(String name) {
+		if (DEFAULT_LAYER.equals(name)) {
+			throw new IllegalArgumentException("Default layer cannot be removed");
 		}
 
-		return status;
-	}
+		final CanvasLayerHolder layer;
 
+		synchronized (layersSyncObj) {
+			layer = mapNameLayer.remove(name);
 
-	public int getViewWidth() {
-		int res;
+			if (layer == null) {
+				return false;
+			}
 
-		synchronized (viewWidthHeightSynObj) {
-			res = viewWidth;
+			rebuildLayerList();
 		}
 
-		return res;
-	}
+		ZOrderIndex.Snapshot<CanvasObjectHolder> holders = layer.objZOrderIndex.getSnapshot();
+		int[] ids = new int[holders.size()];
 
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = holders.get(i).id;
+		}
 
-	public int getViewHeight() {
-		int res;
+		removeObjects(ids);
 
-		synchronized (viewWidthHeightSynObj) {
-			res = viewHeight;
-		}
+		// Cache is only touched by the drawing pass, which no longer sees this layer
+		runOnDrawingPass(new Runnable() {
+			@Override
+			public void run() {
+				layer.releaseCache();
+			}
+		});
 
-		return res;
-	}
+		postInvalidateCanvas();
 
+		return true;
+	}
 
-	public ViewMatrixAnalyzer getViewMatrixAnalyzer() {
-		ViewMatrixAnalyzer res = new ViewMatrixAnalyzer();
 
-		synchronized (matViewSynObj) {
-			res.set(matView);
+	public boolean hasLayer(String name) {
+		synchronized (layersSyncObj) {
+			return mapNameLayer.containsKey(name);
 		}
 
-		return res;
 	}
 
 
 	/**
 	 *
-	 * @param viewMatrix If null, viewMatrix is regarded as identity matrix
+	 * @param name
+	 * @param visible
+	 * @return false if layer does not exist
 	 */
-	public void setViewMatrix(Matrix viewMatrix) {
-		synchronized (matViewSynObj) {
-			matView.set(viewMatrix);
+	public boolean setLayerVisible(String name, boolean visible) {
+		CanvasLayerHolder layer = getLayer(name);
+
+		if (layer == null) {
+			return false;
 		}
 
-		postInvalidateCanvas();
+		if (layer.visible != visible) {
+			layer.visible = visible;
+			sceneContentVersion.incrementAndGet();
+
+			// Lazy updates skip hidden layers, its objects may be out of date
+			if (visible) {
+				lazyUpdate();
+			}
+
+			postInvalidateCanvas();
+		}
+
+		return true;
 	}
 
 
-	public void mapViewToOriginalPoint(float x, float y, PointF res) {
-		ViewMatrixAnalyzer matViewAnalzyer = new ViewMatrixAnalyzer();
+	/**
+	 *
+	 * @param name
+	 * @param cached
+	 * @return false if layer does not exist
+	 */
+	public boolean setLayerCached(String name, boolean cached) {
+		CanvasLayerHolder layer = getLayer(name);
 
-		synchronized (matViewSynObj) {
-			matViewAnalzyer.set(matView);
+		if (layer == null) {
+			return false;
 		}
 
-		matViewAnalzyer.mapViewToOriginalPoint(x, y, res);
-	}
+		if (layer.cached != cached) {
+			layer.cached = cached;
 
+			postInvalidateCanvas();
+		}
 
-	public void setOnCanvasGestureListener(OnCanvasGestureListener listener) {
-		this.externalGestureListener = listener;
+		return true;
 	}
 
 
-	public void goToBound(RectF bound, int fitBoundMode) {
-		if (
-			Float.isNaN(bound.top) || Float.isInfinite(bound.top)
+	/**
+	 *
+	 * @param id
+	 * @return null if object id does not exist
+	 */
+	public String getObjectLayer(int id) {
+		CanvasObjectHolder holder = mapIntObjHolder.get(id);
+
+		if (holder == null) {
+			return null;
+		}
+
+		return holder.layer.name;
+	}
+
+
+	/**
+	 * Find visible objects at a point of the view. Can be called from any thread.
+	 * Objects without a finite bound are never returned
+	 *
+	 * @param viewX
+	 * @param viewY
+	 * @param tolerancePx How far (in view pixels) from an object the point may be
+	 * @return ids of objects hit by the point, top-most (last drawn) first
+	 */
+	public int[] findObjectsAt(float viewX, float viewY, float tolerancePx) {
+		ViewMatrixAnalyzer matViewAnalyzer = getViewMatrixAnalyzer();
+		float scale = matViewAnalyzer.getScale();
+
+		PointF p = matViewAnalyzer.mapViewToOriginalPoint(viewX, viewY, null);
+
+		// Bounds don't include lines and vertex points, which are drawn in view pixels
+		float searchPad = (tolerancePx + CULLING_MARGIN_PX) / scale;
+
+		IntArrayList candidateIds = new IntArrayList();
+
+		synchronized (objSpatialIndex) {
+			objSpatialIndex.search(
+				p.x - searchPad, p.y - searchPad, p.x + searchPad, p.y + searchPad,
+				candidateIds
+			);
+
+		}
+
+		ArrayList<CanvasObjectHolder> hits = new ArrayList<>();
+
+		for (int i = 0; i < candidateIds.size(); ++i) {
+			CanvasObjectHolder holder = mapIntObjHolder.get(candidateIds.get(i));
+
+			if (holder == null || !holder.visible || !holder.layer.visible) {
+				continue;
+			}
+
+			if (
+				CanvasObjectGeometry.hitTest(
+					holder.canvasObject, p.x, p.y, tolerancePx, scale
+				)
+			) {
+				hits.add(holder);
+			}
+
+		}
+
+		return toIdsInReverseDrawOrder(hits);
+	}
+
+
+	/**
+	 * Find visible objects intersecting (or contained in) a rectangle of the view.
+	 * Can be called from any thread. Objects without a finite bound are never returned
+	 *
+	 * @param viewRect
+	 * @param selectMode SELECT_INTERSECTING or SELECT_CONTAINED
+	 * @return ids of selected objects, top-most (last drawn) first
+	 */
+	public int[] findObjectsInRect(RectF viewRect, int selectMode) {
+		if (viewRect == null) {
+			throw new IllegalArgumentException("viewRect cannot be null");
+		}
+
+		List<PointF> viewRegion = new ArrayList<>(4);
+		viewRegion.add(new PointF(viewRect.left, viewRect.top));
+		viewRegion.add(new PointF(viewRect.right, viewRect.top));
+		viewRegion.add(new PointF(viewRect.right, viewRect.bottom));
+		viewRegion.add(new PointF(viewRect.left, viewRect.bottom));
+
+		return findObjectsInViewRegion(viewRegion, selectMode);
+	}
+
+
+	/**
+	 * Find visible objects intersecting (or contained in) a lasso of the view.
+	 * Can be called from any thread. Objects without a finite bound are never returned
+	 *
+	 * @param viewLasso Vertices of the lasso, which is implicitly closed
+	 * @param selectMode SELECT_INTERSECTING or SELECT_CONTAINED
+	 * @return ids of selected objects, top-most (last drawn) first
+	 */
+	public int[] findObjectsInLasso(List<PointF> viewLasso, int selectMode) {
+		if (viewLasso == null || viewLasso.size() < 3) {
+			throw new IllegalArgumentException("viewLasso must have at least 3 vertices");
+		}
+
+		return findObjectsInViewRegion(viewLasso, selectMode);
+	}
+
+
+	/**
+	 * Static objects (bounded, not needing lazy update) are recorded into retained
+	 * display lists and replayed under the current view matrix. Lines and points are
+	 * sized in view pixels, so an object is recorded at the view scale rounded to a
+	 * power of 2^(1/4), and re-recorded only when its content (version) changes or the
+	 * view scale leaves that bucket (during gestures, only once it is 25% off).
+	 *
+	 * Objects batched by setBatchedDrawingEnabled() are not recorded
+	 */
+	public void setRetainedDrawingEnabled(boolean enabled) {
+		retainedDrawingEnabled = enabled;
+		postInvalidateCanvas();
+	}
+
+
+	public boolean isRetainedDrawingEnabled() {
+		return retainedDrawingEnabled;
+	}
+
+
+	/**
+	 * Lazy updates (e.g. CanvasResponsiveBitmap decoding) normally run once a gesture
+	 * ends. If enabled, they also run during gestures, at most every
+	 * PREDICTIVE_UPDATE_INTERVAL_MILLIS, for the view extrapolated
+	 * PREDICTIVE_UPDATE_HORIZON_MILLIS ahead from the current pan and zoom velocities,
+	 * so that content is ready when the view gets there
+	 */
+	public void setPredictiveLazyUpdateEnabled(boolean enabled) {
+		predictiveLazyUpdateEnabled = enabled;
+	}
+
+
+	public boolean isPredictiveLazyUpdateEnabled() {
+		return predictiveLazyUpdateEnabled;
+	}
+
+
+	/**
+	 * Consecutive (in drawing order) CanvasPolygon and CanvasPolyline objects with
+	 * the same line width, line color and vertex point style have their lines drawn
+	 * with one Canvas.drawLines call, and their vertex points with one pair of
+	 * Canvas.drawPoints calls. A batch is cut wherever drawing it at once would change
+	 * the result of overlapping objects, so z-order is preserved.
+	 *
+	 * Only exact CanvasPolygon / CanvasPolyline instances without a first vertex mark
+	 * are batched. Batching takes precedence over retained display lists: batched
+	 * objects are never recorded, so with both enabled, display lists only serve other
+	 * static objects
+	 */
+	public void setBatchedDrawingEnabled(boolean enabled) {
+		batchedDrawingEnabled = enabled;
+		postInvalidateCanvas();
+	}
+
+
+	public boolean isBatchedDrawingEnabled() {
+		return batchedDrawingEnabled;
+	}
+
+
+	/**
+	 * If enabled, the scene is rasterized once into a bitmap when a pan/zoom gesture
+	 * starts, and only that bitmap (transformed by the gesture) is drawn until the
+	 * gesture ends, which triggers one full redraw. Frame cost during gestures then
+	 * no longer depends on the number of objects, at the cost of a view-sized bitmap
+	 * and of blank areas revealed at the view's edges while panning
+	 */
+	public void setGestureSnapshotEnabled(boolean enabled) {
+		gestureSnapshotEnabled = enabled;
+
+		if (!enabled) {
+			gestureSnapshotRequested = false;
+
+			// Snapshot is only touched by the drawing pass
+			runOnDrawingPass(new Runnable() {
+				@Override
+				public void run() {
+					if (!gestureSnapshotEnabled) {
+						releaseGestureSnapshot();
+					}
+
+				}
+			});
+
+			postInvalidateCanvas();
+		}
+
+	}
+
+
+	public boolean isGestureSnapshotEnabled() {
+		return gestureSnapshotEnabled;
+	}
+
+
+	/**
+	 * In progressive mode, each frame draws objects (in drawing order) into an
+	 * accumulation bitmap until the time budget runs out, and the next frames continue
+	 * where it stopped, until the scene is complete. Any change of the view matrix or
+	 * of the scene restarts the pass. Meanwhile, the last complete result (moved to
+	 * the current view matrix) is shown below the partial one. Layer caches are not
+	 * used in this mode
+	 *
+	 * @param enabled
+	 * @param frameBudgetMillis Drawing time allowed per frame
+	 */
+	public void setProgressiveRenderingEnabled(boolean enabled, long frameBudgetMillis) {
+		if (enabled && frameBudgetMillis <= 0) {
+			throw new IllegalArgumentException("frameBudgetMillis must be positive");
+		}
+
+		final ProgressiveRenderer prevRenderer = progressiveRenderer;
+
+		progressiveRenderer = (enabled ? new ProgressiveRenderer(frameBudgetMillis) : null);
+
+		if (prevRenderer != null) {
+			// Bitmaps are only touched by the drawing pass
+			runOnDrawingPass(new Runnable() {
+				@Override
+				public void run() {
+					prevRenderer.release();
+				}
+			});
+
+		}
+
+		postInvalidateCanvas();
+	}
+
+
+	public boolean isProgressiveRenderingEnabled() {
+		return progressiveRenderer != null;
+	}
+
+
+	/**
+	 * Collect frame durations, numbers of drawn and skipped objects, and cumulative
+	 * draw time per object type. Enabling again resets the collected data
+	 *
+	 * @param enabled
+	 * @param frameCapacity Number of most recent frames kept
+	 */
+	public void setDrawProfilingEnabled(boolean enabled, int frameCapacity) {
+		drawProfiler = (enabled ? new DrawProfiler(frameCapacity) : null);
+	}
+
+
+	public void setDrawProfilingEnabled(boolean enabled) {
+		setDrawProfilingEnabled(enabled, DrawProfiler.DEFAULT_CAPACITY);
+	}
+
+
+	public boolean isDrawProfilingEnabled() {
+		return drawProfiler != null;
+	}
+
+
+	/**
+	 * Can be called from any thread
+	 *
+	 * @return Statistics collected since draw profiling was enabled, null if it is disabled
+	 */
+	public CanvasDrawProfile getDrawProfile() {
+		DrawProfiler profiler = drawProfiler;
+
+		if (profiler == null) {
+			return null;
+		}
+
+		return profiler.snapshot();
+	}
+
+
+	/**
+	 * Listener is called after each frame, while draw profiling is enabled, on the thread
+	 * drawing the scene (the UI thread, unless RENDER_BACKEND_RENDER_THREAD is used)
+	 */
+	public void setOnFrameDrawnListener(OnFrameDrawnListener listener) {
+		onFrameDrawnListener = listener;
+	}
+
+
+	public boolean isEditing() {
+		return editing;
+	}
+
+
+	public int startEditorImmediatey(
+		CanvasEditor editor,
+		Object initData,
+		CanvasEditor.OnCancelListener onCancelListener
+	) {
+		if (this.editor != null) {
+			this.editor.cancelImmediately();
+		}
+
+		clearEditor();
+
+		int status = editor.startByCanvas(
+			this,
+			initData,
+			canvasManagedOnCancelListener
+		);
+
+		if (status == CanvasEditor.STARTED_SUCCESS) {
+			this.editor = editor;
+			this.editorGestureListener = editor.getGestureListener();
+			this.editorGivenOnCancelListener = onCancelListener;
+
+			editing = true;
+		}
+
+		return status;
+	}
+
+
+	public int getViewWidth() {
+		int res;
+
+		synchronized (viewWidthHeightSynObj) {
+			res = viewWidth;
+		}
+
+		return res;
+	}
+
+
+	public int getViewHeight() {
+		int res;
+
+		synchronized (viewWidthHeightSynObj) {
+			res = viewHeight;
+		}
+
+		return res;
+	}
+
+
+	public ViewMatrixAnalyzer getViewMatrixAnalyzer() {
+		ViewMatrixAnalyzer res = new ViewMatrixAnalyzer();
+
+		synchronized (matViewSynObj) {
+			res.set(matView);
+		}
+
+		return res;
+	}
+
+
+	/**
+	 *
+	 * @param viewMatrix If null, viewMatrix is regarded as identity matrix
+	 */
+	public void setViewMatrix(Matrix viewMatrix) {
+		synchronized (matViewSynObj) {
+			matView.set(viewMatrix);
+		}
+
+		onViewMatrixSet();
+	}
+
+
+	public void mapViewToOriginalPoint(float x, float y, PointF res) {
+		ViewMatrixAnalyzer matViewAnalzyer = new ViewMatrixAnalyzer();
+
+		synchronized (matViewSynObj) {
+			matViewAnalzyer.set(matView);
+		}
+
+		matViewAnalzyer.mapViewToOriginalPoint(x, y, res);
+	}
+
+
+	public void setOnCanvasGestureListener(OnCanvasGestureListener listener) {
+		this.externalGestureListener = listener;
+	}
+
+
+	public void goToBound(RectF bound, int fitBoundMode) {
+		if (
+			Float.isNaN(bound.top) || Float.isInfinite(bound.top)
 			|| Float.isNaN(bound.left) || Float.isInfinite(bound.left)
 			|| Float.isNaN(bound.bottom) || Float.isInfinite(bound.bottom)
 				|| Float.isNaN(bound.right) || Float.isInfinite(bound.right)
@@ -398,486 +1250,2585 @@ public class ObjectBasedCanvas extends RelativeLayout {
 			return;
 		}
 
-		Matrix matViewCpy;
-		int viewWidthCpy;
-		int viewHeightCpy;
+		Matrix matViewCpy;
+		int viewWidthCpy;
+		int viewHeightCpy;
+
+		synchronized (matViewSynObj) {
+			matViewCpy = new Matrix(this.matView);
+		}
+
+		synchronized (viewWidthHeightSynObj) {
+			viewWidthCpy = viewWidth;
+			viewHeightCpy = viewHeight;
+		}
+
+		RectF viewBound = new RectF();
+		matViewCpy.mapRect(viewBound, bound);
+
+		matViewCpy.postTranslate(
+			viewWidthCpy / 2f - viewBound.centerX(),
+			viewHeightCpy / 2f - viewBound.centerY()
+		);
+
+		float scaleRatio;
+
+		if (viewHeightCpy < viewWidthCpy) {
+			scaleRatio = viewHeightCpy * FITBOUND_RATIO / viewBound.height();
+		} else {
+			scaleRatio = viewWidthCpy * FITBOUND_RATIO / viewBound.width();
+		}
+
+		boolean needScale = false;
+
+		if (fitBoundMode == FITBOUND_ALWAYS) {
+			needScale = true;
+		} else if (fitBoundMode == FITBOUND_IF_ZOOMIN && scaleRatio > 1) {
+			needScale = true;
+		} else if (fitBoundMode == FITBOUND_IF_ZOOMOUT && scaleRatio < 1) {
+			needScale = true;
+		}
+
+		if (needScale) {
+			matViewCpy.postScale(scaleRatio, scaleRatio, viewWidthCpy / 2f, viewHeightCpy / 2f);
+		}
+
+		synchronized (matViewSynObj) {
+			matView.set(matViewCpy);
+		}
+
+		onViewMatrixSet();
+	}
+
+
+	public void goToPoint(float x, float y) {
+		synchronized (viewWidthHeightSynObj) {
+			synchronized (matViewSynObj) {
+				float[] coors = new float[]{x, y};
+
+				matView.mapPoints(coors);
+
+				matView.postTranslate(
+					viewWidth / 2f - coors[0],
+					viewHeight / 2f - coors[1]
+				);
+
+			}
+
+		}
+
+		onViewMatrixSet();
+	}
+
+
+	/**
+	 * Request the whole view to be redrawn on the next vsync. Same as
+	 * postInvalidateCanvas(), but not deferred by batch updates
+	 */
+	public void invalidateCanvas() {
+		redrawRequestCount.incrementAndGet();
+		requestRedraw(true, 0, 0, 0, 0);
+	}
+
+
+	/**
+	 * Request the whole view to be redrawn on the next vsync. Can be called from any
+	 * thread. Any number of requests between two vsyncs make a single redraw
+	 */
+	public void postInvalidateCanvas() {
+		redrawRequestCount.incrementAndGet();
+
+		if (batchUpdateDepth.get() > 0) {
+			batchInvalidatePending = true;
+
+			// The batch may have ended in between, don't lose the request
+			if (batchUpdateDepth.get() > 0) {
+				return;
+			}
+
+		}
+
+		requestRedraw(true, 0, 0, 0, 0);
+	}
+
+
+	/**
+	 * Request the view region (in view pixels) to be redrawn. Can be called from any thread
+	 */
+	public void postInvalidateCanvas(int left, int top, int right, int bottom) {
+		redrawRequestCount.incrementAndGet();
+
+		if (batchUpdateDepth.get() > 0) {
+			batchInvalidatePending = true;
+
+			if (batchUpdateDepth.get() > 0) {
+				return;
+			}
+
+		}
+
+		requestRedraw(false, left, top, right, bottom);
+	}
+
+
+	/**
+	 *
+	 * @return Number of redraw requests (invalidateCanvas(), postInvalidateCanvas(),
+	 *         including internal ones) since the canvas was created
+	 */
+	public long getRedrawRequestCount() {
+		return redrawRequestCount.get();
+	}
+
+
+	/**
+	 *
+	 * @return Number of frames drawn since the canvas was created
+	 */
+	public long getRedrawPerformedCount() {
+		return redrawPerformedCount.get();
+	}
+
+
+	/**
+	 * Record the region to redraw, and schedule a redraw on the next vsync if none is
+	 * scheduled yet
+	 *
+	 * @param fullView If true, the whole view is redrawn and the rect is ignored
+	 */
+	private void requestRedraw(boolean fullView, int left, int top, int right, int bottom) {
+		synchronized (redrawSyncObj) {
+			if (fullView) {
+				redrawFullView = true;
+			} else if (!redrawFullView) {
+				redrawDirtyRect.union(left, top, right, bottom);
+			}
+
+		}
+
+		if (redrawScheduled.compareAndSet(false, true)) {
+			// Hops to the main thread, which posts a frame callback to its Choreographer,
+			// run at the start of the next vsync frame, before that frame's traversal.
+			// View.postOnAnimation() isn't used: before API 24, callbacks posted to a
+			// detached view from another thread are never run
+			mainHandler.post(vsyncRedrawCallback);
+		}
+
+	}
+
+
+	/**
+	 * Switch the rendering backend. Scene, view matrix, editor and listeners are kept.
+	 * Must be called on the UI thread
+	 *
+	 * @param backend RENDER_BACKEND_VIEW or RENDER_BACKEND_RENDER_THREAD
+	 */
+	public void setRenderBackend(int backend) {
+		if (backend != RENDER_BACKEND_VIEW && backend != RENDER_BACKEND_RENDER_THREAD) {
+			throw new IllegalArgumentException("Invalid render backend: " + backend);
+		}
+
+		if (backend == renderBackend) {
+			return;
+		}
+
+		renderBackend = backend;
+
+		// Removing a MyTextureCanvas destroys its surface, which stops (and waits for)
+		// the render thread, so the new backend is the only one drawing
+		removeView(viewUnderlyingCanvas);
+
+		if (editorOverlay != null) {
+			removeView(editorOverlay);
+			editorOverlay = null;
+		}
+
+		if (backend == RENDER_BACKEND_RENDER_THREAD) {
+			attachCanvasView(new MyTextureCanvas(getContext()));
+
+			// Right above the canvas view, below views added by editors
+			editorOverlay = new MyEditorOverlay(getContext());
+			editorOverlay.setLayoutParams(createFillLayoutParams());
+
+			addView(editorOverlay, indexOfChild(viewUnderlyingCanvas) + 1);
+		} else {
+			attachCanvasView(new MyUnderlyingCanvas(getContext()));
+		}
+
+	}
+
+
+	public int getRenderBackend() {
+		return renderBackend;
+	}
+
+
+	/**
+	 * Same as exportScene(originalRegion, scale, DEFAULT_EXPORT_TILE_SIZE, out, listener)
+	 */
+	public ExportTask exportScene(
+		RectF originalRegion, float scale, OutputStream out, OnExportListener listener
+	) {
+		return exportScene(originalRegion, scale, DEFAULT_EXPORT_TILE_SIZE, out, listener);
+	}
+
+
+	/**
+	 * Export a region of the scene (visible layers' visible objects, without the editor)
+	 * as a PNG image of any size, e.g. 20000 x 20000 for printing. Done on a background
+	 * thread, tile by tile, each tile being drawn into a tile-sized bitmap under a
+	 * tile-specific view matrix. A row of tiles is then compressed and written to out,
+	 * so peak memory is about (image width + tileSize) * tileSize * 4 bytes, whatever
+	 * the image height.
+	 *
+	 * Objects are drawn as of when the export started, with their current content.
+	 * Their draw() is called from the export thread, concurrently with the drawing pass.
+	 * CanvasResponsiveBitmap objects decode the parts they need at the export resolution
+	 *
+	 * @param originalRegion Region to export, in original coordinate system
+	 * @param scale Image pixels per original unit. The image is
+	 *              ceil(originalRegion.width() * scale) x ceil(originalRegion.height() * scale)
+	 * @param tileSize
+	 * @param out Not closed at the end
+	 * @param listener May be null. Called on the export thread
+	 * @return Handle of the export, which can be cancelled
+	 */
+	public ExportTask exportScene(
+		RectF originalRegion, float scale, int tileSize, OutputStream out,
+		OnExportListener listener
+	) {
+		if (
+			originalRegion == null
+			|| !(originalRegion.width() > 0) || !(originalRegion.height() > 0)
+		) {
+			throw new IllegalArgumentException("originalRegion must be non-empty");
+		}
+
+		if (!(scale > 0) || Float.isInfinite(scale)) {
+			throw new IllegalArgumentException("scale must be positive");
+		}
+
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("tileSize must be positive");
+		}
+
+		if (out == null) {
+			throw new IllegalArgumentException("out cannot be null");
+		}
+
+		double imageWidth = Math.ceil(originalRegion.width() * (double)scale);
+		double imageHeight = Math.ceil(originalRegion.height() * (double)scale);
+
+		// A row of tiles is buffered as ints
+		if (imageWidth * Math.min(tileSize, imageHeight) > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Exported image is too wide for tileSize");
+		}
+
+		if (imageHeight > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Exported image is too high");
+		}
+
+		ExportTask task = new ExportTask();
+
+		MySceneExportThread thr = new MySceneExportThread(
+			task, new RectF(originalRegion), scale, (int)imageWidth, (int)imageHeight,
+			tileSize, out, listener
+		);
+
+		thr.start();
+
+		return task;
+	}
+
+
+	@Override
+	protected void onLayout(
+		boolean changed, int left, int top, int right, int bottom
+	) {
+		super.onLayout(changed, left, top, right, bottom);
+
+		synchronized (viewWidthHeightSynObj) {
+			viewWidth = this.getWidth();
+			viewHeight = this.getHeight();
+		}
+
+	}
+
+
+	private void init(Context context) {
+		gestureDetector.setGestureListener(internalGestureListener);
+
+		// Attached first, adding a layer invalidates the canvas view
+		attachCanvasView(new MyUnderlyingCanvas(context));
+
+		addLayer(DEFAULT_LAYER, 0, false);
+	}
+
+
+	private void attachCanvasView(View view) {
+		viewUnderlyingCanvas = view;
+		viewUnderlyingCanvas.setLayoutParams(createFillLayoutParams());
+
+		addView(viewUnderlyingCanvas);
+	}
+
+
+	private RelativeLayout.LayoutParams createFillLayoutParams() {
+		RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(
+			ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT
+		);
+
+		layoutParams.setMargins(0, 0, 0, 0);
+		layoutParams.addRule(ALIGN_PARENT_LEFT, TRUE);
+		layoutParams.addRule(ALIGN_PARENT_RIGHT, TRUE);
+		layoutParams.addRule(ALIGN_PARENT_TOP, TRUE);
+		layoutParams.addRule(ALIGN_PARENT_BOTTOM, TRUE);
+
+		return layoutParams;
+	}
+
+
+	private CanvasLayerHolder getLayer(String name) {
+		synchronized (layersSyncObj) {
+			return mapNameLayer.get(name);
+		}
+
+	}
+
+
+	private CanvasLayerHolder getLayerOrThrow(String name) {
+		CanvasLayerHolder layer = getLayer(name);
+
+		if (layer == null) {
+			throw new IllegalArgumentException("Layer " + name + " does not exist");
+		}
+
+		return layer;
+	}
+
+
+	private int[] findObjectsInViewRegion(List<PointF> viewRegion, int selectMode) {
+		if (selectMode != SELECT_INTERSECTING && selectMode != SELECT_CONTAINED) {
+			throw new IllegalArgumentException("Invalid select mode: " + selectMode);
+		}
+
+		ViewMatrixAnalyzer matViewAnalyzer = getViewMatrixAnalyzer();
+
+		// View may be rotated, so a view rectangle is a general polygon in original space
+		List<PointF> region = new ArrayList<>(viewRegion.size());
+
+		for (PointF p : viewRegion) {
+			region.add(matViewAnalyzer.mapViewToOriginalPoint(p.x, p.y, null));
+		}
+
+		RectF regionBound = GeometryUtil.getBound(region);
+		IntArrayList candidateIds = new IntArrayList();
+
+		synchronized (objSpatialIndex) {
+			objSpatialIndex.search(
+				regionBound.left, regionBound.top, regionBound.right, regionBound.bottom,
+				candidateIds
+			);
+
+		}
+
+		ArrayList<CanvasObjectHolder> selected = new ArrayList<>();
+
+		for (int i = 0; i < candidateIds.size(); ++i) {
+			CanvasObjectHolder holder = mapIntObjHolder.get(candidateIds.get(i));
+
+			if (holder == null || !holder.visible || !holder.layer.visible) {
+				continue;
+			}
+
+			boolean match;
+
+			if (selectMode == SELECT_CONTAINED) {
+				match = CanvasObjectGeometry.containedInRegion(holder.canvasObject, region);
+			} else {
+				match = CanvasObjectGeometry.intersectsRegion(holder.canvasObject, region);
+			}
+
+			if (match) {
+				selected.add(holder);
+			}
+
+		}
+
+		return toIdsInReverseDrawOrder(selected);
+	}
+
+
+	/**
+	 * Sort holders by drawing order (layer, then z-order inside layer, then id),
+	 * and return their ids from the last drawn to the first drawn
+	 */
+	private int[] toIdsInReverseDrawOrder(List<CanvasObjectHolder> holders) {
+		Collections.sort(holders, new Comparator<CanvasObjectHolder>() {
+			@Override
+			public int compare(CanvasObjectHolder a, CanvasObjectHolder b) {
+				if (a.layer != b.layer) {
+					if (a.layer.zOrder != b.layer.zOrder) {
+						return a.layer.zOrder < b.layer.zOrder ? 1 : -1;
+					}
+
+					return a.layer.creationOrder < b.layer.creationOrder ? 1 : -1;
+				}
+
+				if (a.zOrder != b.zOrder) {
+					return a.zOrder < b.zOrder ? 1 : -1;
+				}
+
+				return a.id < b.id ? 1 : (a.id > b.id ? -1 : 0);
+			}
+		});
+
+		int[] res = new int[holders.size()];
+
+		for (int i = 0; i < res.length; ++i) {
+			res[i] = holders.get(i).id;
+		}
+
+		return res;
+	}
+
+
+	/**
+	 * Caller must hold layersSyncObj's monitor
+	 */
+	private void rebuildLayerList() {
+		CanvasLayerHolder[] newLayers = mapNameLayer.values().toArray(
+			new CanvasLayerHolder[mapNameLayer.size()]
+		);
+
+		Arrays.sort(newLayers, new Comparator<CanvasLayerHolder>() {
+			@Override
+			public int compare(CanvasLayerHolder a, CanvasLayerHolder b) {
+				if (a.zOrder != b.zOrder) {
+					return a.zOrder < b.zOrder ? -1 : 1;
+				}
+
+				return a.creationOrder < b.creationOrder ? -1 : 1;
+			}
+		});
+
+		layers = newLayers;
+		sceneContentVersion.incrementAndGet();
+	}
+
+
+	/**
+	 * Redraw only the view region covering both original-space regions (usually bounds
+	 * of an object before and after a change). A null region means unknown extent,
+	 * in which case the whole canvas is redrawn
+	 */
+	private void postInvalidateOriginalRegion(RectF regionA, RectF regionB) {
+		if (regionA == null || regionB == null) {
+			postInvalidateCanvas();
+			return;
+		}
+
+		RectF viewRegionA = new RectF();
+		RectF viewRegionB = new RectF();
+
+		synchronized (matViewSynObj) {
+			matView.mapRect(viewRegionA, regionA);
+			matView.mapRect(viewRegionB, regionB);
+		}
+
+		viewRegionA.union(viewRegionB);
+
+		// Lines and vertex points are drawn in view pixels around the bound
+		viewRegionA.inset(-CULLING_MARGIN_PX, -CULLING_MARGIN_PX);
+
+		Rect dirty = new Rect();
+		viewRegionA.roundOut(dirty);
+
+		postInvalidateCanvas(dirty.left, dirty.top, dirty.right, dirty.bottom);
+	}
+
+
+	/**
+	 * (Re)compute bound of holder's object and reflect it in the spatial index
+	 */
+	private void updateSpatialIndex(int id, CanvasObjectHolder holder) {
+		synchronized (objSpatialIndex) {
+			// Under the monitor, so that a copy made under it (scene export) never sees
+			// a half-written bound
+			holder.refreshBound();
+
+			// removeObject() removes from mapIntObjHolder before objSpatialIndex, so a
+			// concurrently removed id is never indexed again
+			if (mapIntObjHolder.get(id) == holder) {
+				indexHolderBound(id, holder);
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Put holder's last computed bound into the spatial index.
+	 * Caller must hold objSpatialIndex's monitor
+	 */
+	private void indexHolderBound(int id, CanvasObjectHolder holder) {
+		if (holder.bounded) {
+			RectF bound = holder.bound;
+
+			objSpatialIndex.insert(id, bound.left, bound.top, bound.right, bound.bottom);
+		} else {
+			objSpatialIndex.remove(id);
+		}
+
+	}
+
+
+	/**
+	 *
+	 * @param obj
+	 * @param res Original-space bound of obj
+	 * @return false if the bound of obj can't be determined, so it must always be drawn
+	 */
+	private static boolean getObjectBound(CanvasObject obj, RectF res) {
+		if (!obj.getBound(res)) {
+			return false;
+		}
+
+		return !(
+			Float.isNaN(res.left) || Float.isInfinite(res.left)
+			|| Float.isNaN(res.top) || Float.isInfinite(res.top)
+			|| Float.isNaN(res.right) || Float.isInfinite(res.right)
+			|| Float.isNaN(res.bottom) || Float.isInfinite(res.bottom)
+		);
+	}
+
+
+	/**
+	 * Request lazy-updating objects to be updated for the current view matrix. Requests
+	 * made while an update pass runs are coalesced into one more pass, which uses the
+	 * newest view matrix
+	 */
+	private void lazyUpdate() {
+		lazyUpdate(null);
+	}
+
+
+	/**
+	 *
+	 * @param predictedMatView View matrix to update for, instead of the current one.
+	 *                         Copied
+	 */
+	private void lazyUpdate(Matrix predictedMatView) {
+		synchronized (lazyUpdateSyncObj) {
+			if (!lazyUpdateAttached) {
+				// Run for the view at attach time: a predicted view would be stale by then
+				lazyUpdateDeferred = true;
+				return;
+			}
+
+			if (thrLazyUpdate == null) {
+				thrLazyUpdate = new MyLazyUpdateThread();
+				thrLazyUpdate.start();
+			}
+
+			thrLazyUpdate.requestUpdate(predictedMatView);
+		}
+
+	}
+
+
+	/**
+	 * Cancel the lazy update pass in progress (and its queued objects), as it is for
+	 * a view which is gone. Called on every view matrix change and gesture start
+	 *
+	 * @param predictiveToo If false (gesture moves), a predictive pass goes on, as it is
+	 *                      for a view ahead of the current one
+	 */
+	private void cancelLazyUpdates(boolean predictiveToo) {
+		CancellationSignal signal = lazyUpdateSignal.getAndSet(null);
+
+		if (signal != null) {
+			signal.cancel();
+		}
+
+		if (predictiveToo) {
+			signal = predictiveLazyUpdateSignal.getAndSet(null);
+
+			if (signal != null) {
+				signal.cancel();
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Called on gesture start
+	 */
+	private void startViewMotionPrediction() {
+		viewMotionPredictor.reset();
+		lastPredictiveUpdateNanos = System.nanoTime();
+	}
+
+
+	/**
+	 * Called after each gesture move applied to the view matrix. Requests a predictive
+	 * lazy update if enabled and none was requested for an interval
+	 */
+	private void updateViewMotionPrediction(
+		float dx, float dy, float scale, float focusX, float focusY
+	) {
+		if (!predictiveLazyUpdateEnabled) {
+			return;
+		}
+
+		long now = System.nanoTime();
+
+		viewMotionPredictor.addDelta(now, dx, dy, scale, focusX, focusY);
+
+		if (now - lastPredictiveUpdateNanos < PREDICTIVE_UPDATE_INTERVAL_MILLIS * 1000000L) {
+			return;
+		}
+
+		lastPredictiveUpdateNanos = now;
+
+		synchronized (matViewSynObj) {
+			viewMotionPredictor.predict(
+				matView, PREDICTIVE_UPDATE_HORIZON_MILLIS * 1000000L, predictedMatView
+			);
+
+		}
+
+		lazyUpdate(predictedMatView);
+	}
+
+
+	/**
+	 * The view matrix was set programmatically, not by a gesture (which requests lazy
+	 * updates once it ends)
+	 */
+	private void onViewMatrixSet() {
+		cancelLazyUpdates(true);
+		lazyUpdate();
+
+		postInvalidateCanvas();
+	}
+
+
+	@Override
+	protected void onAttachedToWindow() {
+		super.onAttachedToWindow();
+
+		// Whatever happened to a pending callback, start over with a full redraw
+		mainHandler.removeCallbacks(vsyncRedrawCallback);
+		Choreographer.getInstance().removeFrameCallback(vsyncRedrawCallback);
+		redrawScheduled.set(false);
+
+		invalidateCanvas();
+
+		boolean deferred;
+
+		synchronized (lazyUpdateSyncObj) {
+			lazyUpdateAttached = true;
+
+			deferred = lazyUpdateDeferred;
+			lazyUpdateDeferred = false;
+		}
+
+		if (deferred) {
+			lazyUpdate();
+		}
+
+	}
+
+
+	@Override
+	protected void onDetachedFromWindow() {
+		super.onDetachedFromWindow();
+
+		// The worker would otherwise keep this view alive. Requests are deferred until
+		// the view is attached again
+		synchronized (lazyUpdateSyncObj) {
+			lazyUpdateAttached = false;
+
+			if (thrLazyUpdate != null) {
+				thrLazyUpdate.quit();
+				thrLazyUpdate = null;
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Ask the drawing pass to rasterize the scene into the gesture snapshot at the next
+	 * frame. Must be called on the UI thread
+	 */
+	private void startGestureSnapshot() {
+		if (gestureSnapshotEnabled && !editing) {
+			gestureSnapshotRequested = true;
+		}
+
+	}
+
+
+	/**
+	 * Drawing stops using the gesture snapshot as soon as the touch ends. Redraw the
+	 * whole scene at full fidelity. Must be called on the UI thread
+	 */
+	private void endGestureSnapshot() {
+		gestureSnapshotRequested = false;
+
+		if (gestureSnapshotEnabled) {
+			invalidateCanvas();
+		}
+
+	}
+
+
+	/**
+	 * Rasterize the current scene into the gesture snapshot. The bitmap is kept for
+	 * the next gesture. Only called by the drawing pass
+	 *
+	 * @param profiler Profiler of the frame, null if not profiled
+	 */
+	private void captureGestureSnapshot(
+		ViewMatrixAnalyzer matViewAnalyzer, int width, int height, DrawProfiler profiler
+	) {
+		if (width <= 0 || height <= 0) {
+			return;
+		}
+
+		if (
+			gestureSnapshotBitmap == null
+			|| gestureSnapshotBitmap.getWidth() != width
+			|| gestureSnapshotBitmap.getHeight() != height
+		) {
+			releaseGestureSnapshot();
+
+			gestureSnapshotBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+			gestureSnapshotCanvas = new Canvas(gestureSnapshotBitmap);
+		} else {
+			gestureSnapshotBitmap.eraseColor(Color.TRANSPARENT);
+		}
+
+		gestureSnapshotMatrix.set(matViewAnalyzer.get());
+		gestureSnapshotMatrix.invert(gestureSnapshotInverse);
+
+		drawScene(
+			gestureSnapshotCanvas, matViewAnalyzer, width, height, true, false, profiler
+		);
+
+		gestureSnapshotActive = true;
+	}
+
+
+	private void releaseGestureSnapshot() {
+		gestureSnapshotActive = false;
+
+		if (gestureSnapshotBitmap != null) {
+			gestureSnapshotBitmap.recycle();
+		}
+
+		gestureSnapshotBitmap = null;
+		gestureSnapshotCanvas = null;
+	}
+
+
+	/**
+	 * Run task on the thread drawing the scene, so it can safely touch drawing-pass
+	 * state (caches, snapshots). Can be called from any thread
+	 */
+	private void runOnDrawingPass(Runnable task) {
+		MyRenderThread thr = renderThread;
+
+		if (thr != null && thr.runTask(task)) {
+			return;
+		}
+
+		post(task);
+	}
+
+
+	private void clearEditor() {
+		this.editor = null;
+		this.editorGestureListener = null;
+		this.editorGivenOnCancelListener = null;
+	}
+
+
+	/**
+	 * Draw one frame as the drawing pass would, with the view translated by
+	 * (translateX, translateY) instead of matView. Only meant for tests
+	 */
+	void renderFrame(
+		Canvas canvas, int width, int height, float translateX, float translateY
+	) {
+		frameMatViewAnalyzer.setScaleTranslate(1, translateX, translateY);
+		drawFrame(canvas, frameMatViewAnalyzer, width, height, true);
+	}
+
+
+	/**
+	 * Draw a whole frame: scene (or gesture snapshot, or progressive pass) and editor.
+	 * Called by the drawing pass of the current backend
+	 *
+	 * @param drawEditor false on the render thread: the editor's state is mutated by the
+	 *                   UI thread, which draws it in editorOverlay instead
+	 */
+	private void drawFrame(Canvas canvas, int width, int height, boolean drawEditor) {
+		ViewMatrixAnalyzer matViewAnalyzer = frameMatViewAnalyzer;
+
+		synchronized (matViewSynObj) {
+			matViewAnalyzer.set(matView);
+		}
+
+		drawFrame(canvas, matViewAnalyzer, width, height, drawEditor);
+	}
+
+
+	private void drawFrame(
+		Canvas canvas, ViewMatrixAnalyzer matViewAnalyzer, int width, int height,
+		boolean drawEditor
+	) {
+		redrawPerformedCount.incrementAndGet();
+
+		DrawProfiler profiler = drawProfiler;
+
+		if (profiler != null) {
+			profiler.beginFrame();
+		}
+
+		boolean isOnAnimation = false;
+
+		if (isTouching) {
+			isOnAnimation = true;
+		}
+
+		if (!isOnAnimation) {
+			gestureSnapshotActive = false;
+		} else if (gestureSnapshotRequested) {
+			gestureSnapshotRequested = false;
+			captureGestureSnapshot(matViewAnalyzer, width, height, profiler);
+		}
+
+		if (isOnAnimation && gestureSnapshotActive) {
+			// Snapshot was drawn under gestureSnapshotMatrix, move it by the change since
+			gestureSnapshotDrawMatrix.set(matViewAnalyzer.get());
+			gestureSnapshotDrawMatrix.preConcat(gestureSnapshotInverse);
+
+			canvas.drawBitmap(
+				gestureSnapshotBitmap, gestureSnapshotDrawMatrix, gestureSnapshotPaint
+			);
+
+		} else if (progressiveRenderer != null) {
+			progressiveRenderer.draw(
+				canvas, matViewAnalyzer, width, height, isOnAnimation, profiler
+			);
+
+		} else {
+			drawScene(canvas, matViewAnalyzer, width, height, false, isOnAnimation, profiler);
+		}
+
+		CanvasEditor editorCpy = editor;
+
+		if (drawEditor && editorCpy != null) {
+			editorCpy.draw(
+				canvas, matViewAnalyzer, viewWidth, viewHeight, paint, isOnAnimation
+			);
+
+		}
+
+		if (profiler != null) {
+			long durationNanos = profiler.endFrame(isOnAnimation);
+			OnFrameDrawnListener listener = onFrameDrawnListener;
+
+			if (listener != null) {
+				listener.onFrameDrawn(
+					durationNanos, profiler.getObjectsDrawn(), profiler.getObjectsSkipped(),
+					isOnAnimation
+				);
+
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Draw all visible layers' objects
+	 *
+	 * @param fullView If true, the whole view is drawn, whatever canvas's clip bounds
+	 * @param profiler Profiler of the frame (drawProfiler when it began), null if not
+	 *                 profiled
+	 */
+	private void drawScene(
+		Canvas canvas, ViewMatrixAnalyzer matViewAnalyzer, int width, int height,
+		boolean fullView, boolean isOnAnimation, DrawProfiler profiler
+	) {
+		CanvasLayerHolder[] layersCpy = layers;
+
+		// Re-rendering a layer cache needs every object in the view, not only
+		// those inside the dirty region. While animating, stale caches are bypassed
+		// (layer drawn directly), so they are only re-rendered once the view settles
+		boolean needFullView = fullView;
+
+		for (CanvasLayerHolder layer : layersCpy) {
+			if (
+				layer.visible && layer.cached && !isOnAnimation
+				&& !layer.isCacheValid(matViewAnalyzer.get(), width, height)
+			) {
+				needFullView = true;
+			}
+
+		}
+
+		int curDrawStamp = markVisibleObjects(
+			canvas, matViewAnalyzer, width, height, needFullView
+		);
+
+
+		for (CanvasLayerHolder layer : layersCpy) {
+			if (!layer.visible) {
+				continue;
+			}
+
+			if (!layer.cached) {
+				layer.releaseCache();
+			} else if (layer.isCacheValid(matViewAnalyzer.get(), width, height)) {
+				canvas.drawBitmap(layer.cacheBitmap, 0, 0, null);
+				continue;
+			} else if (!isOnAnimation) {
+				Canvas cacheCanvas = layer.prepareCache(matViewAnalyzer.get(), width, height);
+
+				drawLayerObjects(
+					cacheCanvas, layer, matViewAnalyzer, curDrawStamp, isOnAnimation, profiler
+				);
+
+				canvas.drawBitmap(layer.cacheBitmap, 0, 0, null);
+				continue;
+			}
+
+			drawLayerObjects(
+				canvas, layer, matViewAnalyzer, curDrawStamp, isOnAnimation, profiler
+			);
+
+		}
+
+	}
+
+
+	/**
+	 * Stamp every object whose bound intersects the original-space region being
+	 * redrawn (canvas's clip bounds, i.e. the dirty region, mapped to original space)
+	 *
+	 * @param fullView If true, the whole view is used instead of canvas's clip bounds
+	 *
+	 * @return stamp of this pass
+	 */
+	private int markVisibleObjects(
+		Canvas canvas, ViewMatrixAnalyzer matViewAnalyzer, int width, int height,
+		boolean fullView
+	) {
+		int curDrawStamp = ++drawStamp;
+
+		if (fullView) {
+			clipBound.set(0, 0, width, height);
+		} else if (!canvas.getClipBounds(clipBound)) {
+			// Nothing to redraw at all
+			return curDrawStamp;
+		}
+
+		matViewAnalyzer.mapViewToOriginalBound(
+			clipBound.left - CULLING_MARGIN_PX, clipBound.top - CULLING_MARGIN_PX,
+			clipBound.right + CULLING_MARGIN_PX, clipBound.bottom + CULLING_MARGIN_PX,
+			visibleBound
+		);
+
+		visibleObjIds.clear();
+
+		synchronized (objSpatialIndex) {
+			objSpatialIndex.search(
+				visibleBound.left, visibleBound.top,
+				visibleBound.right, visibleBound.bottom,
+				visibleObjIds
+			);
+
+		}
+
+		for (int i = 0; i < visibleObjIds.size(); ++i) {
+			CanvasObjectHolder holder = mapIntObjHolder.get(visibleObjIds.get(i));
+
+			if (holder != null) {
+				holder.drawStamp = curDrawStamp;
+			}
+
+		}
+
+		return curDrawStamp;
+	}
+
+
+	private void drawLayerObjects(
+		Canvas canvas, CanvasLayerHolder layer, ViewMatrixAnalyzer matViewAnalyzer,
+		int curDrawStamp, boolean isOnAnimation, DrawProfiler profiler
+	) {
+		ZOrderIndex.Snapshot<CanvasObjectHolder> holders
+			= layer.objZOrderIndex.getSnapshot();
+
+		boolean retainedDrawing = retainedDrawingEnabled;
+		boolean displayListSupported = ObjectDisplayList.isSupported(canvas);
+		boolean batchedDrawing = batchedDrawingEnabled;
+
+		for (int i = 0; i < holders.size(); ++i) {
+			CanvasObjectHolder holder = holders.get(i);
+
+			// Not visible, or culled: bounded but not found by the spatial index query
+			if (!holder.visible || (holder.bounded && holder.drawStamp != curDrawStamp)) {
+				if (profiler != null) {
+					profiler.recordObjectSkipped();
+				}
+
+				continue;
+			}
+
+			CanvasObject obj = holder.canvasObject;
+			long drawStartNanos = (profiler != null ? System.nanoTime() : 0);
+
+			drawObject(
+				canvas, holder, obj, matViewAnalyzer, isOnAnimation,
+				retainedDrawing && displayListSupported, batchedDrawing
+			);
+
+			if (profiler != null) {
+				profiler.recordObjectDrawn(obj, System.nanoTime() - drawStartNanos);
+			}
+
+		}
+
+		polyDrawBatch.flush(canvas, paint);
+	}
+
+
+	/**
+	 * Polygons and polylines accepted by PolyDrawBatch are batched. Other objects
+	 * unchanged since they were indexed are replayed from their display list when
+	 * possible. Pending batched objects must be flushed (polyDrawBatch) once the last
+	 * object of the pass is drawn
+	 */
+	private void drawObject(
+		Canvas canvas, CanvasObjectHolder holder, CanvasObject obj,
+		ViewMatrixAnalyzer matViewAnalyzer, boolean isOnAnimation, boolean retainedDrawing,
+		boolean batchedDrawing
+	) {
+		if (batchedDrawing && PolyDrawBatch.canBatch(obj)) {
+			// One draw call per batch beats one Picture replay per object
+			holder.displayList = null;
+			polyDrawBatch.add((CanvasPoly)obj, canvas, matViewAnalyzer, paint, isOnAnimation);
+
+			return;
+		}
+
+		// Not batchable, pending objects are below it
+		polyDrawBatch.flush(canvas, paint);
+
+		if (
+			retainedDrawing && holder.bounded
+			&& holder.indexedVersion == obj.getVersion() && !obj.needLazyUpdate()
+		) {
+			if (holder.displayList == null) {
+				holder.displayList = new ObjectDisplayList();
+			}
+
+			if (
+				holder.displayList.draw(
+					canvas, obj, holder.bound, matViewAnalyzer, paint, isOnAnimation
+				)
+			) {
+				return;
+			}
+
+		} else if (holder.displayList != null) {
+			// Not replayable for now, don't keep a stale recording around
+			holder.displayList = null;
+		}
+
+		obj.draw(canvas, matViewAnalyzer, paint, isOnAnimation);
+	}
+
+
+
+
+
+
+	public interface OnFrameDrawnListener {
+		void onFrameDrawn(
+			long durationNanos, int objectsDrawn, int objectsSkipped, boolean isOnAnimation
+		);
+	}
+
+
+
+	public interface OnExportListener {
+		/**
+		 * Called after each tile
+		 */
+		void onExportProgress(int tilesDone, int tileCount);
+
+		/**
+		 *
+		 * @param success false if the export failed or was cancelled
+		 * @param error Cause of the failure (an IOException, RuntimeException or Error
+		 *              such as OutOfMemoryError), null if successful or cancelled
+		 */
+		void onExportFinished(boolean success, Throwable error);
+	}
+
+
+
+	public static class ExportTask {
+		private volatile boolean cancelled = false;
+		private volatile boolean done = false;
+
+
+
+		private ExportTask() {
+
+		}
+
+
+		/**
+		 * Stop the export after the tile being drawn. The PNG written so far is incomplete
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+
+		public boolean isDone() {
+			return done;
+		}
+
+	}
+
+
+
+	/**
+	 * Issue the redraw collapsed from all requests since the previous vsync. Posted to
+	 * the main thread, where run() posts it as a frame callback of its Choreographer
+	 */
+	private class MyVsyncRedrawCallback implements Runnable, Choreographer.FrameCallback {
+		@Override
+		public void run() {
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+
+		@Override
+		public void doFrame(long frameTimeNanos) {
+			// Cleared first, so a request from now on schedules the next vsync and is
+			// at worst also served by this redraw
+			redrawScheduled.set(false);
+
+			boolean fullView;
+			int left, top, right, bottom;
+
+			synchronized (redrawSyncObj) {
+				fullView = redrawFullView;
+				left = redrawDirtyRect.left;
+				top = redrawDirtyRect.top;
+				right = redrawDirtyRect.right;
+				bottom = redrawDirtyRect.bottom;
+
+				redrawFullView = false;
+				redrawDirtyRect.setEmpty();
+			}
+
+			MyRenderThread thr = renderThread;
+
+			// The render thread always redraws the whole surface
+			if (thr != null) {
+				thr.requestRender();
+
+				// Also once the editor is gone, to erase it
+				if (editorOverlay != null) {
+					editorOverlay.invalidate();
+				}
+
+			} else if (fullView) {
+				viewUnderlyingCanvas.invalidate();
+			} else if (left < right && top < bottom) {
+				viewUnderlyingCanvas.invalidate(left, top, right, bottom);
+			}
+
+		}
+
+	}
+
+
+
+	private class MyUnderlyingCanvas extends View {
+		public MyUnderlyingCanvas(Context context) {
+			super(context);
+		}
+
+
+		@Override
+		public boolean onTouchEvent(MotionEvent ev) {
+			gestureDetector.onTouch(ev);
+
+			return true;
+		}
+
+
+		@Override
+		protected void onDraw(Canvas canvas) {
+			super.onDraw(canvas);
+
+			drawFrame(canvas, getWidth(), getHeight(), true);
+		}
+
+	}
+
+
+
+	/**
+	 * Draws the editor on the UI thread, above MyTextureCanvas. Touches fall through to
+	 * the views below
+	 */
+	private class MyEditorOverlay extends View {
+		public MyEditorOverlay(Context context) {
+			super(context);
+		}
+
+
+		@Override
+		protected void onDraw(Canvas canvas) {
+			super.onDraw(canvas);
+
+			CanvasEditor editorCpy = editor;
+
+			if (editorCpy == null) {
+				return;
+			}
+
+			ViewMatrixAnalyzer matViewAnalyzer = editorOverlayMatViewAnalyzer;
+
+			synchronized (matViewSynObj) {
+				matViewAnalyzer.set(matView);
+			}
+
+			editorCpy.draw(
+				canvas, matViewAnalyzer, getWidth(), getHeight(), editorOverlayPaint, isTouching
+			);
+
+		}
+
+	}
+
+
+
+	/**
+	 * Canvas view of RENDER_BACKEND_RENDER_THREAD. Drawing happens on a render thread,
+	 * which lives as long as the TextureView's surface
+	 */
+	private class MyTextureCanvas extends TextureView
+		implements TextureView.SurfaceTextureListener
+	{
+		private MyRenderThread thrRender = null;
+
+
+
+		public MyTextureCanvas(Context context) {
+			super(context);
+
+			setOpaque(false);
+			setSurfaceTextureListener(this);
+		}
+
+
+		@Override
+		public boolean onTouchEvent(MotionEvent ev) {
+			gestureDetector.onTouch(ev);
+
+			return true;
+		}
+
+
+		@Override
+		public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+			thrRender = new MyRenderThread(this, width, height);
+			thrRender.start();
+
+			renderThread = thrRender;
+		}
+
+
+		@Override
+		public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+			if (thrRender != null) {
+				thrRender.setSize(width, height);
+			}
+
+		}
+
+
+		@Override
+		public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+			if (thrRender != null) {
+				// New requests go to the UI thread from now on
+				if (renderThread == thrRender) {
+					renderThread = null;
+				}
+
+				thrRender.quitAndJoin();
+				thrRender = null;
+			}
+
+			return true;
+		}
+
+
+		@Override
+		public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+
+		}
+
+	}
+
+
+
+	private class MyRenderThread extends Thread {
+		private final TextureView textureView;
+
+		private final Object renderSyncObj = new Object();
+		// Guarded by renderSyncObj
+		private boolean renderRequested = true;
+		private boolean quitRequested = false;
+		private int surfaceWidth;
+		private int surfaceHeight;
+		private final ArrayList<Runnable> pendingTasks = new ArrayList<>();
+
+
+
+		public MyRenderThread(TextureView textureView, int width, int height) {
+			super("ObjectBasedCanvas-render");
+
+			this.textureView = textureView;
+			this.surfaceWidth = width;
+			this.surfaceHeight = height;
+		}
+
+
+		/**
+		 * Requests made while a frame is being drawn are coalesced into one more frame
+		 */
+		public void requestRender() {
+			synchronized (renderSyncObj) {
+				renderRequested = true;
+				renderSyncObj.notifyAll();
+			}
+
+		}
+
+
+		/**
+		 *
+		 * @param task
+		 * @return false if the thread is quitting, so task will not be run by it
+		 */
+		public boolean runTask(Runnable task) {
+			synchronized (renderSyncObj) {
+				if (quitRequested) {
+					return false;
+				}
+
+				pendingTasks.add(task);
+				renderSyncObj.notifyAll();
+			}
+
+			return true;
+		}
+
+
+		public void setSize(int width, int height) {
+			synchronized (renderSyncObj) {
+				surfaceWidth = width;
+				surfaceHeight = height;
+				renderRequested = true;
+				renderSyncObj.notifyAll();
+			}
+
+		}
+
+
+		/**
+		 * Stop the thread and wait for it, so the caller takes over the drawing-pass state
+		 */
+		public void quitAndJoin() {
+			synchronized (renderSyncObj) {
+				quitRequested = true;
+				renderSyncObj.notifyAll();
+			}
+
+			boolean interrupted = false;
+
+			while (isAlive()) {
+				try {
+					join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+		}
+
+
+		@Override
+		public void run() {
+			ArrayList<Runnable> tasks = new ArrayList<>();
+
+			while (true) {
+				boolean render;
+				int width, height;
+
+				synchronized (renderSyncObj) {
+					while (!quitRequested && !renderRequested && pendingTasks.isEmpty()) {
+						try {
+							renderSyncObj.wait();
+						} catch (InterruptedException e) {
+							quitRequested = true;
+						}
+
+					}
+
+					tasks.addAll(pendingTasks);
+					pendingTasks.clear();
+
+					if (quitRequested) {
+						break;
+					}
+
+					render = renderRequested;
+					renderRequested = false;
+					width = surfaceWidth;
+					height = surfaceHeight;
+				}
+
+				runTasks(tasks);
+
+				if (render) {
+					renderFrame(width, height);
+				}
+
+			}
+
+			// Tasks must not be lost, they release resources
+			runTasks(tasks);
+		}
+
+
+		private void runTasks(ArrayList<Runnable> tasks) {
+			for (int i = 0; i < tasks.size(); ++i) {
+				tasks.get(i).run();
+			}
+
+			tasks.clear();
+		}
+
+
+		private void renderFrame(int width, int height) {
+			Canvas canvas = textureView.lockCanvas();
+
+			if (canvas == null) {
+				// Surface is not usable (anymore)
+				return;
+			}
+
+			try {
+				canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+				drawFrame(canvas, width, height, false);
+			} finally {
+				textureView.unlockCanvasAndPost(canvas);
+			}
+
+		}
+
+	}
+
+
+
+	private class MyCanvasOnCanvasGestureListener implements OnCanvasGestureListener {
+		@Override
+		public boolean onClick(float x, float y) {
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onClick(x, y)
+			) {
+				return true;
+			}
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onClick(x, y)
+			) {
+				return true;
+			}
+
+			return true;
+		}
+
+
+		@Override
+		public boolean onLongPress(float x, float y) {
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onLongPress(x, y)
+			) {
+				return true;
+			}
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onLongPress(x, y)
+			) {
+				return true;
+			}
+
+			return true;
+		}
+
+		@Override
+		public boolean onTouchMoveStart(float x, float y) {
+			isTouching = true;
+
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onTouchMoveStart(x, y)
+			) {
+				return true;
+			}
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onTouchMoveStart(x, y)
+			) {
+				return true;
+			}
+
+			cancelLazyUpdates(true);
+			startViewMotionPrediction();
+			startGestureSnapshot();
+
+			return true;
+		}
+
+
+		@Override
+		public boolean onTouchMove(float x, float y, float[] translateParams) {
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onTouchMove(x, y, translateParams)
+			) {
+				return true;
+			}
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onTouchMove(x, y, translateParams)
+			) {
+				return true;
+			}
+
+			synchronized (matViewSynObj) {
+				matView.postTranslate(translateParams[0], translateParams[1]);
+			}
+
+			cancelLazyUpdates(false);
+			updateViewMotionPrediction(translateParams[0], translateParams[1], 1, 0, 0);
+			invalidateCanvas();
+
+			return true;
+		}
+
+
+		@Override
+		public boolean onTouchMoveEnd() {
+			isTouching = false;
+
+			endGestureSnapshot();
+
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onTouchMoveEnd()
+			) {
+				return true;
+			}
+
+			// A predictive pass may be for a view the gesture didn't reach, it must not
+			// delay the pass for the final view
+			cancelLazyUpdates(true);
+			lazyUpdate();
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onTouchMoveEnd()
+			) {
+				return true;
+			}
+
+			return true;
+		}
+
+
+		@Override
+		public boolean onMultiTouchMoveStart() {
+			isTouching = true;
+
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onMultiTouchMoveStart()
+			) {
+				return true;
+			}
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onMultiTouchMoveStart()
+			) {
+				return true;
+			}
+
+			cancelLazyUpdates(true);
+			startViewMotionPrediction();
+			startGestureSnapshot();
+
+			return false;
+		}
+
+
+		@Override
+		public boolean onMultiTouchMove(
+			float[] translateParams, float[] scaleParams, float[] rotateParams
+		) {
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onMultiTouchMove(
+					translateParams, scaleParams, rotateParams
+				)
+
+			) {
+				return true;
+			}
+
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onMultiTouchMove(
+					translateParams, scaleParams, rotateParams
+				)
+			) {
+				return true;
+			}
+
+			synchronized (matViewSynObj) {
+				matView.postTranslate(translateParams[0], translateParams[1]);
+				matView.postScale(
+					scaleParams[0], scaleParams[1],
+					scaleParams[2], scaleParams[3]
+				);
+				matView.postRotate(
+					rotateParams[0],
+					rotateParams[1], rotateParams[2]
+				);
+
+			}
 
-		synchronized (matViewSynObj) {
-			matViewCpy = new Matrix(this.matView);
-		}
+			cancelLazyUpdates(false);
+			updateViewMotionPrediction(
+				translateParams[0], translateParams[1],
+				scaleParams[0], scaleParams[2], scaleParams[3]
+			);
+			invalidateCanvas();
 
-		synchronized (viewWidthHeightSynObj) {
-			viewWidthCpy = viewWidth;
-			viewHeightCpy = viewHeight;
+			return true;
 		}
 
-		RectF viewBound = new RectF();
-		matViewCpy.mapRect(viewBound, bound);
 
-		matViewCpy.postTranslate(
-			viewWidthCpy / 2f - viewBound.centerX(),
-			viewHeightCpy / 2f - viewBound.centerY()
-		);
+		@Override
+		public boolean onMultiTouchMoveEnd() {
+			isTouching = false;
 
-		float scaleRatio;
+			endGestureSnapshot();
 
-		if (viewHeightCpy < viewWidthCpy) {
-			scaleRatio = viewHeightCpy * FITBOUND_RATIO / viewBound.height();
-		} else {
-			scaleRatio = viewWidthCpy * FITBOUND_RATIO / viewBound.width();
-		}
+			if (
+				editorGestureListener != null
+				&& editorGestureListener.onMultiTouchMoveEnd()
+			) {
+				return true;
+			}
 
-		boolean needScale = false;
+			// A predictive pass may be for a view the gesture didn't reach, it must not
+			// delay the pass for the final view
+			cancelLazyUpdates(true);
+			lazyUpdate();
 
-		if (fitBoundMode == FITBOUND_ALWAYS) {
-			needScale = true;
-		} else if (fitBoundMode == FITBOUND_IF_ZOOMIN && scaleRatio > 1) {
-			needScale = true;
-		} else if (fitBoundMode == FITBOUND_IF_ZOOMOUT && scaleRatio < 1) {
-			needScale = true;
-		}
+			if (
+				!editing
+				&& externalGestureListener != null
+				&& externalGestureListener.onMultiTouchMoveEnd()
+			) {
+				return true;
+			}
 
-		if (needScale) {
-			matViewCpy.postScale(scaleRatio, scaleRatio, viewWidthCpy / 2f, viewHeightCpy / 2f);
+			return true;
 		}
 
-		synchronized (matViewSynObj) {
-			matView.set(matViewCpy);
+	}
+
+
+
+	private class MySceneExportThread extends Thread {
+		private final ExportTask task;
+		private final RectF originalRegion;
+		private final float scale;
+		private final int imageWidth;
+		private final int imageHeight;
+		private final int tileSize;
+		private final OutputStream out;
+		private final OnExportListener listener;
+
+		private final Matrix matTile = new Matrix();
+		private final ViewMatrixAnalyzer matTileAnalyzer = new ViewMatrixAnalyzer();
+		private final RectF tileBound = new RectF();
+		private final Paint exportPaint = new Paint();
+		private final PolyDrawBatch exportPolyDrawBatch = new PolyDrawBatch();
+
+
+
+		public MySceneExportThread(
+			ExportTask task, RectF originalRegion, float scale,
+			int imageWidth, int imageHeight, int tileSize,
+			OutputStream out, OnExportListener listener
+		) {
+			super("ObjectBasedCanvas-export");
+
+			this.task = task;
+			this.originalRegion = originalRegion;
+			this.scale = scale;
+			this.imageWidth = imageWidth;
+			this.imageHeight = imageHeight;
+			this.tileSize = tileSize;
+			this.out = out;
+			this.listener = listener;
 		}
 
-		postInvalidateCanvas();
-	}
 
+		@Override
+		public void run() {
+			boolean success = false;
+			Throwable error = null;
 
-	public void goToPoint(float x, float y) {
-		synchronized (viewWidthHeightSynObj) {
-			synchronized (matViewSynObj) {
-				float[] coors = new float[]{x, y};
+			PngStreamEncoder encoder = null;
+			Bitmap tileBitmap = null;
 
-				matView.mapPoints(coors);
+			try {
+				encoder = new PngStreamEncoder(
+					out, imageWidth, imageHeight, EXPORT_PNG_COMPRESSION_LEVEL
+				);
 
-				matView.postTranslate(
-					viewWidth / 2f - coors[0],
-					viewHeight / 2f - coors[1]
+				int tileWidthMax = Math.min(tileSize, imageWidth);
+				int tileHeightMax = Math.min(tileSize, imageHeight);
+
+				tileBitmap = Bitmap.createBitmap(
+					tileWidthMax, tileHeightMax, Bitmap.Config.ARGB_8888
 				);
 
+				Canvas tileCanvas = new Canvas(tileBitmap);
+				int[] tileRowPixels = new int[imageWidth * tileHeightMax];
+
+				// The scene as of now, drawn the same for every tile
+				List<MyExportObject> exportObjects = copyVisibleScene();
+
+				int tileCols = (imageWidth + tileSize - 1) / tileSize;
+				int tileRows = (imageHeight + tileSize - 1) / tileSize;
+				int tilesDone = 0;
+
+				for (int row = 0; row < tileRows && !task.cancelled; ++row) {
+					int tileTop = row * tileSize;
+					int tileHeight = Math.min(tileSize, imageHeight - tileTop);
+
+					for (int col = 0; col < tileCols && !task.cancelled; ++col) {
+						int tileLeft = col * tileSize;
+						int tileWidth = Math.min(tileSize, imageWidth - tileLeft);
+
+						tileBitmap.eraseColor(Color.TRANSPARENT);
+
+						matTile.setScale(scale, scale);
+						matTile.postTranslate(
+							-originalRegion.left * scale - tileLeft,
+							-originalRegion.top * scale - tileTop
+						);
+
+						matTileAnalyzer.set(matTile);
+
+						drawTile(tileCanvas, tileWidth, tileHeight, exportObjects);
+
+						tileBitmap.getPixels(
+							tileRowPixels, tileLeft, imageWidth, 0, 0, tileWidth, tileHeight
+						);
+
+						++tilesDone;
+
+						if (listener != null) {
+							listener.onExportProgress(tilesDone, tileCols * tileRows);
+						}
+
+					}
+
+					if (!task.cancelled) {
+						encoder.writeRows(tileRowPixels, 0, imageWidth, tileHeight);
+					}
+
+				}
+
+				if (!task.cancelled) {
+					encoder.finish();
+					encoder = null;
+
+					success = true;
+				}
+
+			} catch (Throwable e) {
+				// Including OutOfMemoryError from the tile bitmap or row buffer of a large
+				// export: the listener must hear of it, nobody else would
+				error = e;
+			} finally {
+				if (encoder != null) {
+					encoder.abort();
+				}
+
+				if (tileBitmap != null) {
+					tileBitmap.recycle();
+				}
+
+				task.done = true;
+
+				if (listener != null) {
+					listener.onExportFinished(success, error);
+				}
+
 			}
 
 		}
 
-		postInvalidateCanvas();
-	}
 
+		/**
+		 * Copy visible objects of visible layers, in drawing order. Bounds are copied
+		 * under objSpatialIndex's monitor, which guards their updates, as the UI thread
+		 * may change them while tiles are drawn
+		 */
+		private List<MyExportObject> copyVisibleScene() {
+			List<MyExportObject> res = new ArrayList<>();
 
-	public void invalidateCanvas() {
-		viewUnderlyingCanvas.invalidate();
-	}
+			synchronized (objSpatialIndex) {
+				for (CanvasLayerHolder layer : layers) {
+					if (!layer.visible) {
+						continue;
+					}
 
+					ZOrderIndex.Snapshot<CanvasObjectHolder> holders
+						= layer.objZOrderIndex.getSnapshot();
 
-	public void postInvalidateCanvas() {
-		viewUnderlyingCanvas.postInvalidate();
-	}
+					for (int i = 0; i < holders.size(); ++i) {
+						CanvasObjectHolder holder = holders.get(i);
 
+						if (holder.visible) {
+							res.add(new MyExportObject(holder));
+						}
 
-	@Override
-	protected void onLayout(
-		boolean changed, int left, int top, int right, int bottom
-	) {
-		super.onLayout(changed, left, top, right, bottom);
+					}
 
-		synchronized (viewWidthHeightSynObj) {
-			viewWidth = this.getWidth();
-			viewHeight = this.getHeight();
+				}
+
+			}
+
+			return res;
 		}
 
-	}
 
+		private void drawTile(
+			Canvas canvas, int tileWidth, int tileHeight, List<MyExportObject> exportObjects
+		) {
+			matTileAnalyzer.mapViewToOriginalBound(
+				-CULLING_MARGIN_PX, -CULLING_MARGIN_PX,
+				tileWidth + CULLING_MARGIN_PX, tileHeight + CULLING_MARGIN_PX,
+				tileBound
+			);
+
+			boolean batchedDrawing = batchedDrawingEnabled;
+
+			for (int i = 0; i < exportObjects.size(); ++i) {
+				MyExportObject exportObject = exportObjects.get(i);
+
+				if (
+					exportObject.bound != null
+					&& !RectF.intersects(exportObject.bound, tileBound)
+				) {
+					continue;
+				}
 
-	private void init(Context context) {
-		gestureDetector.setGestureListener(internalGestureListener);
 
-		viewUnderlyingCanvas = new MyUnderlyingCanvas(context);
+				CanvasObject obj = exportObject.canvasObject;
 
-		RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(
-			ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT
-		);
+				if (batchedDrawing && PolyDrawBatch.canBatch(obj)) {
+					exportPolyDrawBatch.add(
+						(CanvasPoly)obj, canvas, matTileAnalyzer, exportPaint, false
+					);
 
-		layoutParams.setMargins(0, 0, 0, 0);
-		layoutParams.addRule(ALIGN_PARENT_LEFT, TRUE);
-		layoutParams.addRule(ALIGN_PARENT_RIGHT, TRUE);
-		layoutParams.addRule(ALIGN_PARENT_TOP, TRUE);
-		layoutParams.addRule(ALIGN_PARENT_BOTTOM, TRUE);
+					continue;
+				}
 
-		viewUnderlyingCanvas.setLayoutParams(layoutParams);
+				exportPolyDrawBatch.flush(canvas, exportPaint);
 
-		addView(viewUnderlyingCanvas);
-	}
+				if (obj instanceof CanvasResponsiveBitmap) {
+					((CanvasResponsiveBitmap)obj).drawDetached(
+						canvas, matTileAnalyzer, tileWidth, tileHeight
+					);
 
+				} else {
+					obj.draw(canvas, matTileAnalyzer, exportPaint, false);
+				}
 
-	private void lazyUpdate() {
-		if (thrLazyUpdate.getState().equals(Thread.State.TERMINATED)) {
-			thrLazyUpdate = new MyLazyUpdateThread();
-		}
+			}
 
-		if (thrLazyUpdate.getState().equals(Thread.State.NEW)) {
-			thrLazyUpdate.start();
+			exportPolyDrawBatch.flush(canvas, exportPaint);
 		}
 
 	}
 
 
-	private void clearEditor() {
-		this.editor = null;
-		this.editorGestureListener = null;
-		this.editorGivenOnCancelListener = null;
+
+	/**
+	 * What a scene export draws of an object, copied when the export starts
+	 */
+	private static class MyExportObject {
+		public final CanvasObject canvasObject;
+		// null if the object is unbounded, so never culled
+		public final RectF bound;
+
+
+
+		/**
+		 * Caller must hold objSpatialIndex's monitor
+		 */
+		public MyExportObject(CanvasObjectHolder holder) {
+			canvasObject = holder.canvasObject;
+			bound = holder.getBoundCopy();
+		}
+
 	}
 
 
 
+	private class MyLazyUpdateThread extends Thread {
+		private final Object workerSyncObj = new Object();
+		// Guarded by workerSyncObj
+		private boolean updateRequested = false;
+		private boolean quitRequested = false;
+		// View matrix of the requested pass, if predicted
+		private boolean requestPredicted = false;
+		private final Matrix requestPredictedMatView = new Matrix();
 
+		// Objects of a pass are updated concurrently, one pool thread per core at most
+		private final ThreadPoolExecutor updatePool;
 
 
-	private class MyUnderlyingCanvas extends View {
-		public MyUnderlyingCanvas(Context context) {
-			super(context);
+
+		public MyLazyUpdateThread() {
+			super("ObjectBasedCanvas-lazyupdate");
+
+			// Must not keep the process alive
+			setDaemon(true);
+
+			int poolSize = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+			updatePool = new ThreadPoolExecutor(
+				poolSize, poolSize,
+				LAZY_UPDATE_POOL_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger counter = new AtomicInteger();
+
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thr = new Thread(
+							r, "ObjectBasedCanvas-lazyupdate-" + counter.incrementAndGet()
+						);
+
+						thr.setDaemon(true);
+
+						return thr;
+					}
+
+				}
+			);
+
+			updatePool.allowCoreThreadTimeOut(true);
 		}
 
 
-		@Override
-		public boolean onTouchEvent(MotionEvent ev) {
-			gestureDetector.onTouch(ev);
+		/**
+		 * Only the latest request matters: any number of requests made before or during
+		 * a pass make a single next pass
+		 *
+		 * @param predictedMatView null to update for the view matrix when the pass starts
+		 */
+		public void requestUpdate(Matrix predictedMatView) {
+			synchronized (workerSyncObj) {
+				updateRequested = true;
+				requestPredicted = (predictedMatView != null);
+
+				if (predictedMatView != null) {
+					requestPredictedMatView.set(predictedMatView);
+				}
+
+				workerSyncObj.notifyAll();
+			}
+
+		}
+
+
+		/**
+		 * The pass in progress, if any, is completed. Pending requests are dropped
+		 */
+		public void quit() {
+			synchronized (workerSyncObj) {
+				quitRequested = true;
+				workerSyncObj.notifyAll();
+			}
 
-			return true;
 		}
 
 
 		@Override
-		protected void onDraw(Canvas canvas) {
-			super.onDraw(canvas);
+		public void run() {
+			Matrix passPredictedMatView = new Matrix();
 
-			ViewMatrixAnalyzer matViewAnalyzer = new ViewMatrixAnalyzer();
+			try {
+				while (true) {
+					boolean passPredicted;
 
-			synchronized (matViewSynObj) {
-				matViewAnalyzer.set(matView);
+					synchronized (workerSyncObj) {
+						while (!updateRequested && !quitRequested) {
+							workerSyncObj.wait();
+						}
+
+						if (quitRequested) {
+							return;
+						}
+
+						// Cleared before the pass reads the view matrix, so a request made
+						// from now on gets a pass seeing its matrix
+						updateRequested = false;
+
+						passPredicted = requestPredicted;
+						passPredictedMatView.set(requestPredictedMatView);
+					}
+
+					updatePass(passPredicted ? passPredictedMatView : null);
+				}
+
+			} catch (InterruptedException e) {
+				// Quit
+			} finally {
+				updatePool.shutdown();
+			}
+
+		}
+
+
+		/**
+		 *
+		 * @param predictedMatView null to update for the current view matrix
+		 */
+		private void updatePass(Matrix predictedMatView) throws InterruptedException {
+			int viewWidthCpy, viewHeightCpy;
+
+			synchronized (viewWidthHeightSynObj) {
+				viewWidthCpy = viewWidth;
+				viewHeightCpy = viewHeight;
 			}
 
-			boolean isOnAnimation = false;
+			// Published before the view matrix is read, so a view change from now on
+			// cancels this pass, and an earlier one is seen by it
+			CancellationSignal signal = new CancellationSignal();
+			Matrix matViewCpy = new Matrix();
+
+			if (predictedMatView != null) {
+				predictiveLazyUpdateSignal.set(signal);
+				matViewCpy.set(predictedMatView);
+			} else {
+				lazyUpdateSignal.set(signal);
+
+				synchronized (matViewSynObj) {
+					matViewCpy.set(matView);
+				}
 
-			if (isTouching) {
-				isOnAnimation = true;
 			}
 
-			synchronized (setObjZOrder) {
-				Iterator<PairZOrderId> iter = setObjZOrder.iterator();
+			// Copied, so that the set's monitor isn't held while objects update
+			IntArrayList ids = new IntArrayList();
 
-				while (iter.hasNext()) {
-					PairZOrderId p = iter.next();
-					CanvasObjectHolder holder = mapIntObjHolder.get(p.id);
+			synchronized (setLazyUpdateObj) {
+				for (Integer id : setLazyUpdateObj) {
+					ids.add(id);
+				}
 
-					if (holder == null) {
-						continue;
-					}
+			}
 
-					if (!holder.visible) {
-						continue;
-					}
+			List<MyLazyUpdateCandidate> candidates = new ArrayList<>();
+
+			for (int i = 0; i < ids.size(); ++i) {
+				CanvasObjectHolder holder = mapIntObjHolder.get(ids.get(i));
+
+				// Hidden layers aren't drawn, as in drawScene()
+				if (holder != null && holder.visible && holder.layer.visible) {
+					candidates.add(
+						new MyLazyUpdateCandidate(holder, matViewCpy, viewWidthCpy, viewHeightCpy)
+					);
 
-					holder.canvasObject.draw(canvas, matViewAnalyzer, paint, isOnAnimation);
 				}
 
 			}
 
-			if (editor != null) {
-				editor.draw(
-					canvas, matViewAnalyzer, viewWidth, viewHeight, paint, isOnAnimation
+			// The pool queue is FIFO: objects covering most of the view refine first
+			Collections.sort(candidates);
+
+			CountDownLatch latch = new CountDownLatch(candidates.size());
+
+			for (MyLazyUpdateCandidate candidate : candidates) {
+				updatePool.execute(
+					new MyLazyUpdateTask(
+						candidate.holder, matViewCpy, viewWidthCpy, viewHeightCpy, signal, latch
+					)
 				);
 
 			}
 
+			// The next pass must not update an object still being updated by this one
+			latch.await();
+
+			// Request the view to redraw (cross-thread execution)
+			postInvalidateCanvas();
 		}
 
 	}
 
 
 
-	private class MyCanvasOnCanvasGestureListener implements OnCanvasGestureListener {
-		@Override
-		public boolean onClick(float x, float y) {
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onClick(x, y)
-			) {
-				return true;
+	/**
+	 * Object to lazy update, with its priority for the view of the pass. Ordered by
+	 * decreasing visible area, then increasing distance of its center to the view's
+	 * center, then from the topmost drawn
+	 */
+	private static class MyLazyUpdateCandidate implements Comparable<MyLazyUpdateCandidate> {
+		public final CanvasObjectHolder holder;
+
+		// In view pixels
+		private final float visibleArea;
+		private final float centerDistanceSq;
+
+
+
+		public MyLazyUpdateCandidate(
+			CanvasObjectHolder holder, Matrix matView, int viewWidth, int viewHeight
+		) {
+			this.holder = holder;
+
+			RectF bound = holder.getBoundCopy();
+
+			if (bound == null) {
+				// Unknown extent: assumed to cover the view, like for culling
+				visibleArea = (float)viewWidth * viewHeight;
+				centerDistanceSq = 0;
+
+				return;
 			}
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onClick(x, y)
-			) {
-				return true;
+			matView.mapRect(bound);
+
+			float dx = bound.centerX() - viewWidth / 2f;
+			float dy = bound.centerY() - viewHeight / 2f;
+			centerDistanceSq = dx * dx + dy * dy;
+
+			if (bound.intersect(0, 0, viewWidth, viewHeight)) {
+				visibleArea = bound.width() * bound.height();
+			} else {
+				visibleArea = 0;
 			}
 
-			return true;
 		}
 
 
 		@Override
-		public boolean onLongPress(float x, float y) {
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onLongPress(x, y)
-			) {
-				return true;
+		public int compareTo(MyLazyUpdateCandidate o) {
+			if (visibleArea != o.visibleArea) {
+				return visibleArea > o.visibleArea ? -1 : 1;
 			}
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onLongPress(x, y)
-			) {
-				return true;
+			if (centerDistanceSq != o.centerDistanceSq) {
+				return centerDistanceSq < o.centerDistanceSq ? -1 : 1;
 			}
 
-			return true;
-		}
+			CanvasObjectHolder a = holder, b = o.holder;
 
-		@Override
-		public boolean onTouchMoveStart(float x, float y) {
-			isTouching = true;
+			if (a.layer != b.layer) {
+				if (a.layer.zOrder != b.layer.zOrder) {
+					return a.layer.zOrder > b.layer.zOrder ? -1 : 1;
+				}
 
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onTouchMoveStart(x, y)
-			) {
-				return true;
+				return a.layer.creationOrder > b.layer.creationOrder ? -1 : 1;
 			}
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onTouchMoveStart(x, y)
-			) {
-				return true;
+			if (a.zOrder != b.zOrder) {
+				return a.zOrder > b.zOrder ? -1 : 1;
 			}
 
-			return true;
+			return a.id > b.id ? -1 : (a.id < b.id ? 1 : 0);
 		}
 
+	}
 
-		@Override
-		public boolean onTouchMove(float x, float y, float[] translateParams) {
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onTouchMove(x, y, translateParams)
-			) {
-				return true;
-			}
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onTouchMove(x, y, translateParams)
-			) {
-				return true;
-			}
 
-			synchronized (matView) {
-				matView.postTranslate(translateParams[0], translateParams[1]);
-			}
+	/**
+	 * Lazy update of one object, run by the lazy update pool
+	 */
+	private class MyLazyUpdateTask implements Runnable {
+		private final CanvasObjectHolder holder;
+		private final Matrix matView;
+		private final int viewWidth;
+		private final int viewHeight;
+		private final CancellationSignal signal;
+		private final CountDownLatch latch;
 
-			invalidateCanvas();
 
-			return true;
+
+		public MyLazyUpdateTask(
+			CanvasObjectHolder holder, Matrix matView, int viewWidth, int viewHeight,
+			CancellationSignal signal, CountDownLatch latch
+		) {
+			this.holder = holder;
+			this.matView = matView;
+			this.viewWidth = viewWidth;
+			this.viewHeight = viewHeight;
+			this.signal = signal;
+			this.latch = latch;
 		}
 
 
 		@Override
-		public boolean onTouchMoveEnd() {
-			isTouching = false;
+		public void run() {
+			try {
+				// Queued behind other objects until the view changed
+				if (signal.isCanceled()) {
+					return;
+				}
 
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onTouchMoveEnd()
-			) {
-				return true;
-			}
+				// Own analyzer, tasks of a pass run concurrently
+				ViewMatrixAnalyzer matViewAnalyzer = new ViewMatrixAnalyzer();
+				matViewAnalyzer.set(matView);
 
-			lazyUpdate();
+				long prevVersion = holder.canvasObject.getVersion();
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onTouchMoveEnd()
-			) {
-				return true;
+				holder.canvasObject.lazyUpdate(matViewAnalyzer, viewWidth, viewHeight, signal);
+
+				if (holder.canvasObject.getVersion() != prevVersion) {
+					holder.layer.markContentChanged();
+
+					// Shown as soon as ready, not after the slowest object of the pass
+					postInvalidateCanvas();
+				}
+
+			} catch (RuntimeException e) {
+				Log.e(TAG, "lazyUpdate failed", e);
+			} finally {
+				latch.countDown();
 			}
 
-			return true;
 		}
 
+	}
+
+
+
+	private class MyEditorOnCancelListener
+	implements CanvasEditor.OnCancelListener {
 
 		@Override
-		public boolean onMultiTouchMoveStart() {
-			isTouching = true;
+		public void onCancel(int state, Object data) {
+			CanvasEditor.OnCancelListener onCancelListener
+				= editorGivenOnCancelListener;
 
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onMultiTouchMoveStart()
-			) {
-				return true;
-			}
+			editor.endByCanvas();
+			clearEditor();
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onMultiTouchMoveStart()
-			) {
-				return true;
+			invalidateCanvas();
+
+			editing = false;
+
+			if (onCancelListener != null) {
+				onCancelListener.onCancel(state, data);
 			}
 
-			return false;
 		}
 
+	}
+
 
-		@Override
-		public boolean onMultiTouchMove(
-			float[] translateParams, float[] scaleParams, float[] rotateParams
-		) {
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onMultiTouchMove(
-					translateParams, scaleParams, rotateParams
-				)
 
-			) {
-				return true;
+	/**
+	 * State of progressive rendering. Only touched by the drawing pass
+	 */
+	private class ProgressiveRenderer {
+		private final long frameBudgetNanos;
+
+		// Last complete result, and the matrix and scene version it was drawn for
+		private Bitmap frontBitmap = null;
+		private boolean frontValid = false;
+		private final Matrix frontMatrix = new Matrix();
+		private final Matrix frontInverse = new Matrix();
+		private final Matrix frontDrawMatrix = new Matrix();
+		private long frontSceneVersion = -1;
+
+		// Pass in progress, accumulated into backBitmap
+		private Bitmap backBitmap = null;
+		private Canvas backCanvas = null;
+		private boolean passActive = false;
+		private final Matrix passMatrix = new Matrix();
+		private long passSceneVersion = -1;
+		private CanvasLayerHolder[] passLayers = null;
+		private int passLayerIndex = 0;
+		private ZOrderIndex.Snapshot<CanvasObjectHolder> passHolders = null;
+		private int passHolderIndex = 0;
+
+		private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+
+
+		public ProgressiveRenderer(long frameBudgetMillis) {
+			this.frameBudgetNanos = frameBudgetMillis * 1000000L;
+		}
+
+
+		/**
+		 *
+		 * @param profiler Profiler of the frame, null if not profiled
+		 */
+		public void draw(
+			Canvas canvas, ViewMatrixAnalyzer matViewAnalyzer, int width, int height,
+			boolean isOnAnimation, DrawProfiler profiler
+		) {
+			if (width <= 0 || height <= 0) {
+				return;
 			}
 
 			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onMultiTouchMove(
-					translateParams, scaleParams, rotateParams
-				)
+				backBitmap == null
+				|| backBitmap.getWidth() != width
+				|| backBitmap.getHeight() != height
 			) {
-				return true;
+				release();
+
+				frontBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+				backBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+				backCanvas = new Canvas(backBitmap);
 			}
 
-			synchronized (matViewSynObj) {
-				matView.postTranslate(translateParams[0], translateParams[1]);
-				matView.postScale(
-					scaleParams[0], scaleParams[1],
-					scaleParams[2], scaleParams[3]
-				);
-				matView.postRotate(
-					rotateParams[0],
-					rotateParams[1], rotateParams[2]
-				);
+			Matrix mat = matViewAnalyzer.get();
+			long sceneVersion = sceneContentVersion.get();
 
-			}
+			boolean upToDate = frontValid
+				&& frontSceneVersion == sceneVersion
+				&& frontMatrix.equals(mat);
 
-			invalidateCanvas();
+			if (!upToDate) {
+				if (!passActive || passSceneVersion != sceneVersion || !passMatrix.equals(mat)) {
+					startPass(mat, sceneVersion);
+				}
 
-			return true;
-		}
+				if (continuePass(matViewAnalyzer, width, height, isOnAnimation, profiler)) {
+					completePass();
+				}
 
+			}
 
-		@Override
-		public boolean onMultiTouchMoveEnd() {
-			isTouching = false;
+			if (frontValid) {
+				frontDrawMatrix.set(mat);
+				frontDrawMatrix.preConcat(frontInverse);
 
-			if (
-				editorGestureListener != null
-				&& editorGestureListener.onMultiTouchMoveEnd()
-			) {
-				return true;
+				canvas.drawBitmap(frontBitmap, frontDrawMatrix, bitmapPaint);
 			}
 
-			lazyUpdate();
+			if (passActive) {
+				canvas.drawBitmap(backBitmap, 0, 0, null);
 
-			if (
-				!editing
-				&& externalGestureListener != null
-				&& externalGestureListener.onMultiTouchMoveEnd()
-			) {
-				return true;
+				// Continue on the next frame
+				invalidateCanvas();
 			}
 
-			return true;
 		}
 
-	}
 
+		public void release() {
+			if (frontBitmap != null) {
+				frontBitmap.recycle();
+			}
 
+			if (backBitmap != null) {
+				backBitmap.recycle();
+			}
 
-	private class MyLazyUpdateThread extends Thread {
+			frontBitmap = null;
+			backBitmap = null;
+			backCanvas = null;
+			frontValid = false;
+			passActive = false;
+			passLayers = null;
+			passHolders = null;
+		}
 
-		@Override
-		public void run() {
-			int viewWidthCpy, viewHeightCpy;
 
-			synchronized (viewWidthHeightSynObj) {
-				viewWidthCpy = viewWidth;
-				viewHeightCpy = viewHeight;
-			}
+		private void startPass(Matrix mat, long sceneVersion) {
+			backBitmap.eraseColor(Color.TRANSPARENT);
 
-			ViewMatrixAnalyzer matViewAnalyzer = new ViewMatrixAnalyzer();
+			passActive = true;
+			passMatrix.set(mat);
+			passSceneVersion = sceneVersion;
+			passLayers = layers;
+			passLayerIndex = 0;
+			passHolders = null;
+			passHolderIndex = 0;
+		}
 
-			synchronized (matViewSynObj) {
-				matViewAnalyzer.set(matView);
-			}
 
-			synchronized (setLazyUpdateObj) {
-				Iterator<Integer> iter = setLazyUpdateObj.iterator();
+		/**
+		 * Draw objects of the pass until the frame budget runs out. At least one object
+		 * is drawn per call, so the pass always progresses
+		 *
+		 * @return true if the pass is complete
+		 */
+		private boolean continuePass(
+			ViewMatrixAnalyzer matViewAnalyzer, int width, int height, boolean isOnAnimation,
+			DrawProfiler profiler
+		) {
+			long deadline = System.nanoTime() + frameBudgetNanos;
 
-				while (iter.hasNext()) {
-					int id = iter.next();
-					CanvasObjectHolder holder = mapIntObjHolder.get(id);
+			int curDrawStamp = markVisibleObjects(
+				backCanvas, matViewAnalyzer, width, height, true
+			);
 
-					if (holder == null) {
+			boolean retainedDrawing = retainedDrawingEnabled
+				&& ObjectDisplayList.isSupported(backCanvas);
+
+			boolean batchedDrawing = batchedDrawingEnabled;
+
+			while (passLayerIndex < passLayers.length) {
+				if (passHolders == null) {
+					CanvasLayerHolder layer = passLayers[passLayerIndex];
+
+					if (!layer.visible) {
+						++passLayerIndex;
 						continue;
 					}
 
-					if (!holder.visible) {
+					passHolders = layer.objZOrderIndex.getSnapshot();
+					passHolderIndex = 0;
+				}
+
+				while (passHolderIndex < passHolders.size()) {
+					CanvasObjectHolder holder = passHolders.get(passHolderIndex++);
+
+					if (!holder.visible || (holder.bounded && holder.drawStamp != curDrawStamp)) {
+						if (profiler != null) {
+							profiler.recordObjectSkipped();
+						}
+
 						continue;
 					}
 
-					holder.canvasObject.lazyUpdate(
-						matViewAnalyzer, viewWidthCpy, viewHeightCpy
-					);
+					CanvasObject obj = holder.canvasObject;
+					long drawStartNanos = System.nanoTime();
 
-				}
+					drawObject(
+						backCanvas, holder, obj, matViewAnalyzer, isOnAnimation,
+						retainedDrawing, batchedDrawing
+					);
 
-			}
+					long drawEndNanos = System.nanoTime();
 
-			// Request the view to redraw (cross-thread execution)
-			postInvalidateCanvas();
-		}
+					if (profiler != null) {
+						profiler.recordObjectDrawn(obj, drawEndNanos - drawStartNanos);
+					}
 
-	}
+					if (drawEndNanos >= deadline) {
+						// backBitmap is shown as is until the next frame
+						polyDrawBatch.flush(backCanvas, paint);
 
+						return false;
+					}
 
+				}
 
-	private class MyEditorOnCancelListener
-	implements CanvasEditor.OnCancelListener {
+				polyDrawBatch.flush(backCanvas, paint);
+				passHolders = null;
+				++passLayerIndex;
+			}
 
-		@Override
-		public void onCancel(int state, Object data) {
-			CanvasEditor.OnCancelListener onCancelListener
-				= editorGivenOnCancelListener;
+			return true;
+		}
 
-			editor.endByCanvas();
-			clearEditor();
 
-			invalidateCanvas();
+		/**
+		 * The pass becomes the front result, and the old front is reused for the next pass
+		 */
+		private void completePass() {
+			Bitmap prevFront = frontBitmap;
 
-			editing = false;
+			frontBitmap = backBitmap;
+			frontValid = true;
+			frontMatrix.set(passMatrix);
+			frontMatrix.invert(frontInverse);
+			frontSceneVersion = passSceneVersion;
 
-			if (onCancelListener != null) {
-				onCancelListener.onCancel(state, data);
-			}
+			backBitmap = prevFront;
+			backCanvas = new Canvas(backBitmap);
 
+			passActive = false;
+			passLayers = null;
+			passHolders = null;
 		}
 
 	}
@@ -885,60 +3836,144 @@ public class ObjectBasedCanvas extends RelativeLayout {
 
 
 	private class CanvasObjectHolder {
+		public final int id;
+		public final CanvasLayerHolder layer;
+
 		public CanvasObject canvasObject;
 
 		public int zOrder;
 		public boolean visible;
 
+		// false if object's bound is unknown, so it is not culled
+		public boolean bounded = false;
+		public final RectF bound = new RectF();
+		// Version of canvasObject when bound was last computed
+		public long indexedVersion = -1;
+		public int drawStamp = 0;
+
+		// Retained recording of canvasObject. Only touched by the drawing pass
+		public ObjectDisplayList displayList = null;
+
 		public final Object zOrderSyncObj = new Object();
 
 
 
 		public CanvasObjectHolder(
-			CanvasObject obj, int zOrder, boolean visible
+			int id, CanvasObject obj, int zOrder, boolean visible, CanvasLayerHolder layer
 		) {
+			this.id = id;
+			this.layer = layer;
 			this.canvasObject = obj;
 			this.zOrder = zOrder;
 			this.visible = visible;
 		}
 
+
+		/**
+		 *
+		 * @return Copy of the last computed bound, null if object is unbounded
+		 */
+		public RectF getBoundCopy() {
+			if (!bounded) {
+				return null;
+			}
+
+			return new RectF(bound);
+		}
+
+
+		public void refreshBound() {
+			indexedVersion = canvasObject.getVersion();
+			bounded = getObjectBound(canvasObject, bound);
+		}
+
 	}
 
 
 
-	private class PairZOrderId implements Comparable {
-		public int zOrder;
-		public int id;
+	private class CanvasLayerHolder {
+		public final String name;
+		public final int zOrder;
+		// Tie-breaker between layers with the same z-order
+		public final int creationOrder;
+
+		public volatile boolean visible = true;
+		public volatile boolean cached = false;
 
+		public final ZOrderIndex<CanvasObjectHolder> objZOrderIndex = new ZOrderIndex<>();
 
+		// Increased whenever anything drawn by this layer changes
+		private final AtomicLong contentVersion = new AtomicLong();
 
-		public PairZOrderId(int zOrder, int id) {
+		// Offscreen cache. Only touched by the drawing pass (UI thread)
+		public Bitmap cacheBitmap = null;
+		private Canvas cacheCanvas = null;
+		private final Matrix cacheMatrix = new Matrix();
+		private long cacheVersion = -1;
+
+
+
+		public CanvasLayerHolder(String name, int zOrder, int creationOrder) {
+			this.name = name;
 			this.zOrder = zOrder;
-			this.id = id;
+			this.creationOrder = creationOrder;
 		}
 
 
-		@Override
-		public int compareTo(Object o) {
-			PairZOrderId other = (PairZOrderId)o;
+		public void markContentChanged() {
+			contentVersion.incrementAndGet();
+			sceneContentVersion.incrementAndGet();
+		}
 
-			if (zOrder < other.zOrder) {
-				return -1;
-			}
 
-			if (zOrder > other.zOrder) {
-				return 1;
-			}
+		public boolean isCacheValid(Matrix matView, int width, int height) {
+			return cacheBitmap != null
+				&& cacheBitmap.getWidth() == width
+				&& cacheBitmap.getHeight() == height
+				&& cacheVersion == contentVersion.get()
+				&& cacheMatrix.equals(matView);
+		}
+
+
+		/**
+		 * Clear (and allocate if needed) the cache bitmap, and mark it as rendered for
+		 * the current content and the given matrix
+		 *
+		 * @return Canvas drawing into the cache bitmap
+		 */
+		public Canvas prepareCache(Matrix matView, int width, int height) {
+			if (
+				cacheBitmap == null
+				|| cacheBitmap.getWidth() != width
+				|| cacheBitmap.getHeight() != height
+			) {
+				releaseCache();
+
+				cacheBitmap = Bitmap.createBitmap(
+					Math.max(width, 1), Math.max(height, 1), Bitmap.Config.ARGB_8888
+				);
 
-			if (id < other.id) {
-				return -1;
+				cacheCanvas = new Canvas(cacheBitmap);
+			} else {
+				cacheBitmap.eraseColor(Color.TRANSPARENT);
 			}
 
-			if (id > other.id) {
-				return 1;
+			// Read version before rendering, so changes made meanwhile invalidate it
+			cacheVersion = contentVersion.get();
+			cacheMatrix.set(matView);
+
+			return cacheCanvas;
+		}
+
+
+		public void releaseCache() {
+			if (cacheBitmap != null) {
+				cacheBitmap.recycle();
 			}
 
-			return 0;
+			cacheBitmap = null;
+			cacheCanvas = null;
+			cacheVersion = -1;
 		}
 
 	}
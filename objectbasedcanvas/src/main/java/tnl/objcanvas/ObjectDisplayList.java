@@ -0,0 +1,182 @@
+package tnl.objcanvas;
+
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.RectF;
+import android.os.Build;
+
+
+
+/**
+ * Retained display list (Picture) of a single canvas object.
+ *
+ * Line widths and vertex points are sized in view pixels, so the object is recorded
+ * under a uniform scale plus a translation moving its bound to the Picture's origin.
+ * Rotation and translation are view-independent, so the recording is replayed under
+ * matView * R^-1 (R being the recording matrix) for any view matrix.
+ *
+ * The recording scale is the view scale rounded to a power of SCALE_BUCKET_RATIO, so
+ * an unchanged object is only re-recorded when the view scale leaves its bucket, not
+ * on every zoom. Lines and points are up to sqrt(SCALE_BUCKET_RATIO) thicker or
+ * thinner meanwhile.
+ *
+ * Only touched by the drawing pass, not thread-safe
+ */
+class ObjectDisplayList {
+	// Ratio between consecutive recording scales (2^(1/4))
+	public static final float SCALE_BUCKET_RATIO = 1.1892071f;
+
+	// While the view is animating, a recording is reused as long as the view scale
+	// stays within this ratio of the recording scale, so that zooming across bucket
+	// boundaries doesn't re-record every object. Once the view settles, the recording
+	// scale must be the bucket of the view scale
+	public static final float ANIMATION_SCALE_TOLERANCE = 1.25f;
+
+	// Objects larger than this (in view pixels, along either axis) are drawn directly
+	public static final float MAX_RECORD_SIZE_PX = 8192;
+
+
+
+	private Picture picture = null;
+
+	// What the picture was recorded from
+	private CanvasObject recordedObject = null;
+	private long recordedVersion = -1;
+	private float recordedScale = 0;
+
+	// Recording matrix R, its inverse, and matView * R^-1
+	private final Matrix recordMatrix = new Matrix();
+	private final Matrix recordMatrixInverse = new Matrix();
+	private final Matrix replayMatrix = new Matrix();
+
+	private final ViewMatrixAnalyzer recordAnalyzer = new ViewMatrixAnalyzer();
+
+
+
+	/**
+	 *
+	 * @param canvas
+	 * @return Whether display lists can be replayed on canvas. Hardware-accelerated
+	 *         canvases only support drawPicture from API 23
+	 */
+	public static boolean isSupported(Canvas canvas) {
+		return !canvas.isHardwareAccelerated()
+			|| Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+	}
+
+
+	/**
+	 * Draw obj by replaying its recording, re-recording it first if obj's content
+	 * changed or the view scale left the recording scale's bucket
+	 *
+	 * @param obj
+	 * @param bound obj's bound, in original coordinate system
+	 * @return false if obj is too large to be recorded at the current scale, in which
+	 *         case nothing is drawn and the caller must draw obj directly
+	 */
+	public boolean draw(
+		Canvas canvas, CanvasObject obj, RectF bound,
+		ViewMatrixAnalyzer matViewAnalyzer, Paint sharedPaint, boolean isOnAnimation
+	) {
+		float scale = matViewAnalyzer.getScale();
+
+		if (
+			!(bound.width() * scale <= MAX_RECORD_SIZE_PX)
+			|| !(bound.height() * scale <= MAX_RECORD_SIZE_PX)
+		) {
+			release();
+			return false;
+		}
+
+		if (needRecord(obj, scale, isOnAnimation)) {
+			record(obj, bound, getBucketScale(scale), sharedPaint);
+		}
+
+		replayMatrix.set(matViewAnalyzer.get());
+		replayMatrix.preConcat(recordMatrixInverse);
+
+		int saveCount = canvas.save();
+
+		canvas.concat(replayMatrix);
+		canvas.drawPicture(picture);
+
+		canvas.restoreToCount(saveCount);
+
+		return true;
+	}
+
+
+	public void release() {
+		picture = null;
+		recordedObject = null;
+		recordedVersion = -1;
+	}
+
+
+	private boolean needRecord(CanvasObject obj, float scale, boolean isOnAnimation) {
+		if (
+			picture == null
+			|| recordedObject != obj
+			|| recordedVersion != obj.getVersion()
+		) {
+			return true;
+		}
+
+		if (recordedScale == getBucketScale(scale)) {
+			return false;
+		}
+
+		if (!isOnAnimation) {
+			return true;
+		}
+
+		float ratio = scale / recordedScale;
+
+		return ratio > ANIMATION_SCALE_TOLERANCE || ratio < 1 / ANIMATION_SCALE_TOLERANCE;
+	}
+
+
+	/**
+	 *
+	 * @param scale
+	 * @return Power of SCALE_BUCKET_RATIO nearest to scale
+	 */
+	private static float getBucketScale(float scale) {
+		double bucket = Math.rint(Math.log(scale) / Math.log(SCALE_BUCKET_RATIO));
+
+		return (float)Math.pow(SCALE_BUCKET_RATIO, bucket);
+	}
+
+
+	private void record(CanvasObject obj, RectF bound, float scale, Paint sharedPaint) {
+		float margin = ObjectBasedCanvas.CULLING_MARGIN_PX;
+
+		recordMatrix.setScale(scale, scale);
+		recordMatrix.postTranslate(-bound.left * scale + margin, -bound.top * scale + margin);
+		recordMatrix.invert(recordMatrixInverse);
+
+		recordAnalyzer.set(recordMatrix);
+
+		int width = (int)Math.ceil(bound.width() * scale + 2 * margin);
+		int height = (int)Math.ceil(bound.height() * scale + 2 * margin);
+
+		// Version is read before drawing, so a change made meanwhile causes another
+		// recording next time rather than being missed
+		long version = obj.getVersion();
+
+		Picture newPicture = new Picture();
+		Canvas recordCanvas = newPicture.beginRecording(Math.max(width, 1), Math.max(height, 1));
+
+		obj.draw(recordCanvas, recordAnalyzer, sharedPaint, false);
+
+		newPicture.endRecording();
+
+		picture = newPicture;
+		recordedObject = obj;
+		recordedVersion = version;
+		recordedScale = scale;
+	}
+
+}
@@ -6,6 +6,7 @@ package tnl.objcanvas;
 public interface OnCanvasGestureListener {
 	// NOTES: For the following methods:
 	//      Return TRUE means event is absorbed, FALSE otherwise
+	//      Parameter arrays are reused between events, don't keep references to them
 	boolean onClick(float x, float y);
 
 	boolean onLongPress(float x, float y);
@@ -0,0 +1,227 @@
+package tnl.objcanvas;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+
+/**
+ * Encodes an 8-bit RGBA PNG row by row into a stream, so that images much larger than
+ * what fits in memory (or in a Bitmap) can be written. Only one row and one compressed
+ * chunk are buffered at a time.
+ *
+ * Rows are given as non-premultiplied ARGB ints, as returned by Bitmap.getPixels().
+ * Each row uses the Sub filter, which compresses flat areas well at a low cost.
+ *
+ * Not thread-safe
+ */
+class PngStreamEncoder {
+	private static final byte[] SIGNATURE = {
+		(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+	};
+
+	private static final int COLOR_TYPE_RGBA = 6;
+	private static final int FILTER_SUB = 1;
+	private static final int BYTES_PER_PIXEL = 4;
+
+	// Compressed data is written in IDAT chunks of at most this size
+	private static final int IDAT_CHUNK_SIZE = 64 * 1024;
+
+
+
+	private final OutputStream out;
+	private final int width;
+	private final int height;
+
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+
+	private final byte[] rowBuffer;
+	private final byte[] chunkBuffer = new byte[IDAT_CHUNK_SIZE];
+	private int chunkLength = 0;
+
+	private int rowsWritten = 0;
+
+
+
+	/**
+	 * Write the PNG header. out is not closed by the encoder
+	 *
+	 * @param out
+	 * @param width
+	 * @param height
+	 * @param compressionLevel 0 - 9, as for Deflater
+	 * @throws IOException
+	 */
+	public PngStreamEncoder(
+		OutputStream out, int width, int height, int compressionLevel
+	) throws IOException {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("width and height must be positive");
+		}
+
+		// Filter byte + pixels must fit in an array
+		if ((long)width * BYTES_PER_PIXEL + 1 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("width is too large");
+		}
+
+		this.out = out;
+		this.width = width;
+		this.height = height;
+
+		deflater = new Deflater(compressionLevel);
+		rowBuffer = new byte[width * BYTES_PER_PIXEL + 1];
+
+		out.write(SIGNATURE);
+
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8;                  // Bit depth
+		header[9] = COLOR_TYPE_RGBA;
+		header[10] = 0;                 // Compression method: deflate
+		header[11] = 0;                 // Filter method: adaptive
+		header[12] = 0;                 // No interlace
+
+		writeChunk("IHDR", header, header.length);
+	}
+
+
+	/**
+	 * Append rows to the image
+	 *
+	 * @param pixels Non-premultiplied ARGB colors
+	 * @param offset Index in pixels of the first row's first pixel
+	 * @param stride Distance in pixels between the starts of consecutive rows
+	 * @param rowCount
+	 * @throws IOException
+	 */
+	public void writeRows(int[] pixels, int offset, int stride, int rowCount) throws IOException {
+		if (rowsWritten + rowCount > height) {
+			throw new IllegalStateException("More rows than the image height");
+		}
+
+		for (int r = 0; r < rowCount; ++r) {
+			int start = offset + r * stride;
+
+			rowBuffer[0] = FILTER_SUB;
+
+			int prevR = 0, prevG = 0, prevB = 0, prevA = 0;
+			int pos = 1;
+
+			for (int i = 0; i < width; ++i) {
+				int c = pixels[start + i];
+
+				int a = (c >>> 24);
+				int red = (c >> 16) & 0xFF;
+				int g = (c >> 8) & 0xFF;
+				int b = c & 0xFF;
+
+				rowBuffer[pos++] = (byte)(red - prevR);
+				rowBuffer[pos++] = (byte)(g - prevG);
+				rowBuffer[pos++] = (byte)(b - prevB);
+				rowBuffer[pos++] = (byte)(a - prevA);
+
+				prevR = red;
+				prevG = g;
+				prevB = b;
+				prevA = a;
+			}
+
+			deflater.setInput(rowBuffer, 0, rowBuffer.length);
+
+			while (!deflater.needsInput()) {
+				drainDeflater();
+			}
+
+		}
+
+		rowsWritten += rowCount;
+	}
+
+
+	/**
+	 * Flush the compressed data and write the PNG trailer. All rows must have been
+	 * written. out is flushed, not closed
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		if (rowsWritten != height) {
+			throw new IllegalStateException(
+				"Only " + rowsWritten + " of " + height + " rows were written"
+			);
+		}
+
+		deflater.finish();
+
+		while (!deflater.finished()) {
+			drainDeflater();
+		}
+
+		flushChunk();
+		deflater.end();
+
+		writeChunk("IEND", chunkBuffer, 0);
+		out.flush();
+	}
+
+
+	/**
+	 * Release the compressor without finishing the image, e.g. when encoding is aborted
+	 */
+	public void abort() {
+		deflater.end();
+	}
+
+
+	private void drainDeflater() throws IOException {
+		chunkLength += deflater.deflate(
+			chunkBuffer, chunkLength, chunkBuffer.length - chunkLength
+		);
+
+		if (chunkLength == chunkBuffer.length) {
+			flushChunk();
+		}
+
+	}
+
+
+	private void flushChunk() throws IOException {
+		if (chunkLength > 0) {
+			writeChunk("IDAT", chunkBuffer, chunkLength);
+			chunkLength = 0;
+		}
+
+	}
+
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		byte[] intBytes = new byte[4];
+
+		putInt(intBytes, 0, length);
+		out.write(intBytes);
+
+		crc.reset();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+
+		out.write(typeBytes);
+		out.write(data, 0, length);
+
+		putInt(intBytes, 0, (int)crc.getValue());
+		out.write(intBytes);
+	}
+
+
+	private static void putInt(byte[] dst, int offset, int value) {
+		dst[offset] = (byte)(value >>> 24);
+		dst[offset + 1] = (byte)(value >>> 16);
+		dst[offset + 2] = (byte)(value >>> 8);
+		dst[offset + 3] = (byte)value;
+	}
+
+}
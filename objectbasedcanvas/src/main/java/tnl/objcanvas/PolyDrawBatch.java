@@ -0,0 +1,274 @@
+package tnl.objcanvas;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PointF;
+
+import java.util.List;
+
+
+
+/**
+ * Draws consecutive CanvasPolygon / CanvasPolyline objects sharing a line and vertex
+ * point style with one Canvas.drawLines call and one pair of Canvas.drawPoints calls
+ * (shadow, then points), instead of one drawLine per segment per object.
+ *
+ * Batching moves an object's lines and points after the primitives of the next objects
+ * of the batch. Fills are drawn right away, so the order only changes where a later
+ * object's fill would be drawn over an earlier object's lines or points, or a later
+ * object's lines or points over an earlier object's points. Such an object is only
+ * added once the pending batch has been flushed, if its view bound overlaps the bound
+ * of a pending object, so the result is the same as drawing objects one by one.
+ *
+ * The drawing pass sends every object accepted by canBatch() here, before trying
+ * its retained display list, so static polygons of a shared style cost one draw call
+ * per batch rather than one Picture replay each.
+ *
+ * Only touched by the drawing pass, not thread-safe. Buffers are kept between frames,
+ * so steady-state drawing doesn't allocate
+ */
+class PolyDrawBatch {
+	// Bounds of pending objects are checked one by one, which bounds the batch size
+	public static final int MAX_BATCH_OBJECTS = 128;
+
+
+
+	// Style of the pending batch
+	private float lineWidth = 0;
+	private int lineColor = DrawingUtil.NONECOLOR;
+	private float pointSize = 0;
+	private int pointColor = DrawingUtil.NONECOLOR;
+
+	// Pending primitives, in view coordinates
+	private float[] segments = new float[1024];
+	private int segmentsLength = 0;
+	private float[] points = new float[512];
+	private int pointsLength = 0;
+
+	// View bounds (left, top, right, bottom) of pending objects, and their union
+	private float[] bounds = new float[MAX_BATCH_OBJECTS * 4];
+	private int objectCount = 0;
+	private float unionLeft, unionTop, unionRight, unionBottom;
+
+	private float[] viewVertices = new float[64];
+
+
+
+	/**
+	 *
+	 * @param obj
+	 * @return Whether obj is drawn by add() exactly as its own draw() would. Subclasses
+	 *         may override draw(), and first vertex marks aren't batched
+	 */
+	public static boolean canBatch(CanvasObject obj) {
+		Class<?> type = obj.getClass();
+
+		if (type != CanvasPolygon.class && type != CanvasPolyline.class) {
+			return false;
+		}
+
+		return DrawingUtil.alpha(((CanvasPoly)obj).firstVertexMarkColor) == 0;
+	}
+
+
+	/**
+	 * Draw poly's fill, and add its lines and points to the batch. The pending batch
+	 * is flushed first if poly's style differs, or if the drawing order would change
+	 *
+	 * @param poly Must be accepted by canBatch()
+	 */
+	public void add(
+		CanvasPoly poly, Canvas canvas, ViewMatrixAnalyzer matViewAnalyzer,
+		Paint sharedPaint, boolean isOnAnimation
+	) {
+		List<PointF> vertices = poly.getLodVertices(
+			matViewAnalyzer, isOnAnimation, poly.isVertexPointDrawn()
+		);
+
+		int length = vertices.size() * 2;
+
+		if (length == 0) {
+			return;
+		}
+
+		viewVertices = matViewAnalyzer.mapOriginalToViewPoint(vertices, viewVertices);
+
+		int fillColor = DrawingUtil.NONECOLOR;
+
+		// Less than 3 vertices can't be a polygon
+		if (poly instanceof CanvasPolygon && length >= 6) {
+			fillColor = ((CanvasPolygon)poly).fillColor;
+		}
+
+		boolean hasFill = DrawingUtil.alpha(fillColor) != 0;
+		boolean hasLines = poly.lineWidth > 0 && DrawingUtil.alpha(poly.lineColor) != 0;
+		boolean hasPoints =
+			poly.vertexPointSize != 0 && DrawingUtil.alpha(poly.vertexPointColor) != 0;
+
+		if (
+			poly.lineWidth != lineWidth || poly.lineColor != lineColor
+			|| poly.vertexPointSize != pointSize || poly.vertexPointColor != pointColor
+		) {
+			flush(canvas, sharedPaint);
+
+			lineWidth = poly.lineWidth;
+			lineColor = poly.lineColor;
+			pointSize = poly.vertexPointSize;
+			pointColor = poly.vertexPointColor;
+		}
+
+		float left = Float.POSITIVE_INFINITY, top = Float.POSITIVE_INFINITY;
+		float right = Float.NEGATIVE_INFINITY, bottom = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < length; i += 2) {
+			left = Math.min(left, viewVertices[i]);
+			top = Math.min(top, viewVertices[i + 1]);
+			right = Math.max(right, viewVertices[i]);
+			bottom = Math.max(bottom, viewVertices[i + 1]);
+		}
+
+		float extent = Math.max(
+			(hasLines ? lineWidth : 0), (hasPoints ? Math.abs(pointSize) : 0)
+		) / 2;
+
+		left -= extent;
+		top -= extent;
+		right += extent;
+		bottom += extent;
+
+		// Pending lines and points are only drawn over a later fill, or a later
+		// object's points, which matters where they overlap
+		if (
+			objectCount >= MAX_BATCH_OBJECTS
+			|| ((hasFill || hasPoints) && overlapsPending(left, top, right, bottom))
+		) {
+			flush(canvas, sharedPaint);
+		}
+
+		if (hasFill) {
+			DrawingUtil.fillPolygon(viewVertices, length, fillColor, canvas, sharedPaint);
+		}
+
+		if (hasLines) {
+			// Polygons are closed only when filled, as in DrawingUtil.drawPoly
+			int segmentCount = length / 2 - 1 + (hasFill ? 1 : 0);
+
+			ensureSegmentsCapacity(segmentsLength + segmentCount * 4);
+
+			for (int i = 0; i + 3 < length; i += 2) {
+				segments[segmentsLength++] = viewVertices[i];
+				segments[segmentsLength++] = viewVertices[i + 1];
+				segments[segmentsLength++] = viewVertices[i + 2];
+				segments[segmentsLength++] = viewVertices[i + 3];
+			}
+
+			if (hasFill) {
+				segments[segmentsLength++] = viewVertices[length - 2];
+				segments[segmentsLength++] = viewVertices[length - 1];
+				segments[segmentsLength++] = viewVertices[0];
+				segments[segmentsLength++] = viewVertices[1];
+			}
+
+		}
+
+		if (hasPoints) {
+			ensurePointsCapacity(pointsLength + length);
+
+			System.arraycopy(viewVertices, 0, points, pointsLength, length);
+			pointsLength += length;
+		}
+
+		if (!hasLines && !hasPoints) {
+			return;
+		}
+
+		if (objectCount == 0) {
+			unionLeft = left;
+			unionTop = top;
+			unionRight = right;
+			unionBottom = bottom;
+		} else {
+			unionLeft = Math.min(unionLeft, left);
+			unionTop = Math.min(unionTop, top);
+			unionRight = Math.max(unionRight, right);
+			unionBottom = Math.max(unionBottom, bottom);
+		}
+
+		bounds[objectCount * 4] = left;
+		bounds[objectCount * 4 + 1] = top;
+		bounds[objectCount * 4 + 2] = right;
+		bounds[objectCount * 4 + 3] = bottom;
+		++objectCount;
+	}
+
+
+	/**
+	 * Draw pending lines and points. Must be called before anything else is drawn on
+	 * canvas, and before the drawing pass ends
+	 */
+	public void flush(Canvas canvas, Paint sharedPaint) {
+		if (segmentsLength > 0) {
+			DrawingUtil.preparePaintForLine(sharedPaint, lineWidth, lineColor);
+			canvas.drawLines(segments, 0, segmentsLength, sharedPaint);
+		}
+
+		if (pointsLength > 0) {
+			DrawingUtil.preparePaintForPoint(
+				sharedPaint, pointSize, DrawingUtil.DEFAULT_POINT_SHADOWCOLOR
+			);
+
+			canvas.drawPoints(points, 0, pointsLength, sharedPaint);
+
+			DrawingUtil.preparePaintForPoint(sharedPaint, pointSize - 2, pointColor);
+			canvas.drawPoints(points, 0, pointsLength, sharedPaint);
+		}
+
+		segmentsLength = 0;
+		pointsLength = 0;
+		objectCount = 0;
+	}
+
+
+	private boolean overlapsPending(float left, float top, float right, float bottom) {
+		if (
+			objectCount == 0
+			|| left > unionRight || right < unionLeft
+			|| top > unionBottom || bottom < unionTop
+		) {
+			return false;
+		}
+
+		for (int i = 0; i < objectCount * 4; i += 4) {
+			if (
+				left <= bounds[i + 2] && right >= bounds[i]
+				&& top <= bounds[i + 3] && bottom >= bounds[i + 1]
+			) {
+				return true;
+			}
+
+		}
+
+		return false;
+	}
+
+
+	private void ensureSegmentsCapacity(int capacity) {
+		if (segments.length < capacity) {
+			float[] newSegments = new float[Math.max(capacity, segments.length * 2)];
+			System.arraycopy(segments, 0, newSegments, 0, segmentsLength);
+			segments = newSegments;
+		}
+
+	}
+
+
+	private void ensurePointsCapacity(int capacity) {
+		if (points.length < capacity) {
+			float[] newPoints = new float[Math.max(capacity, points.length * 2)];
+			System.arraycopy(points, 0, newPoints, 0, pointsLength);
+			points = newPoints;
+		}
+
+	}
+
+}
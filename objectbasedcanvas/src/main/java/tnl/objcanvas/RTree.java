@@ -0,0 +1,541 @@
+package tnl.objcanvas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * Dynamic R-tree (Guttman, quadratic split) over axis-aligned rectangles keyed by
+ * non-zero int ids.
+ *
+ * Not thread-safe, callers must synchronize on the instance
+ */
+class RTree {
+	public static final int MAX_ENTRIES = 16;
+	public static final int MIN_ENTRIES = 6;
+
+
+
+	private Node root = new Node(true);
+	private final IntObjectTable<Entry> mapIdEntry = new IntObjectTable<>();
+
+
+
+	public int size() {
+		return mapIdEntry.size();
+	}
+
+
+	public boolean contains(int id) {
+		return mapIdEntry.containsKey(id);
+	}
+
+
+	/**
+	 * Insert a rectangle with the given id. If id already exists, its rectangle is replaced
+	 */
+	public void insert(int id, float left, float top, float right, float bottom) {
+		remove(id);
+
+		Entry entry = new Entry(id, left, top, right, bottom);
+
+		mapIdEntry.put(id, entry);
+		insertEntry(entry);
+	}
+
+
+	/**
+	 *
+	 * @param id
+	 * @return false if id does not exist
+	 */
+	public boolean remove(int id) {
+		Entry entry = mapIdEntry.remove(id);
+
+		if (entry == null) {
+			return false;
+		}
+
+		Node leaf = entry.leaf;
+
+		leaf.removeChild(entry);
+		entry.leaf = null;
+
+		condenseTree(leaf);
+
+		return true;
+	}
+
+
+	public void clear() {
+		root = new Node(true);
+		mapIdEntry.clear();
+	}
+
+
+	/**
+	 * Append ids of all rectangles intersecting the query rectangle to res
+	 *
+	 * @return number of ids appended
+	 */
+	public int search(
+		float left, float top, float right, float bottom, IntArrayList res
+	) {
+		if (mapIdEntry.size() == 0) {
+			return 0;
+		}
+
+		return search(root, left, top, right, bottom, res);
+	}
+
+
+	private int search(
+		Node node, float left, float top, float right, float bottom, IntArrayList res
+	) {
+		int cnt = 0;
+
+		for (int i = 0; i < node.count; ++i) {
+			Box child = node.children[i];
+
+			if (!child.intersects(left, top, right, bottom)) {
+				continue;
+			}
+
+			if (node.leaf) {
+				res.add(((Entry)child).id);
+				++cnt;
+			} else {
+				cnt += search((Node)child, left, top, right, bottom, res);
+			}
+
+		}
+
+		return cnt;
+	}
+
+
+	private void insertEntry(Entry entry) {
+		Node leaf = chooseLeaf(entry);
+
+		leaf.addChild(entry);
+		entry.leaf = leaf;
+
+		adjustTree(leaf);
+	}
+
+
+	private void insertNode(Node node, int height) {
+		// Walk down to the level where node's parent should live
+		Node cur = root;
+
+		for (int level = heightOf(root); level > height + 1; --level) {
+			cur = chooseSubtree(cur, node);
+		}
+
+		cur.addChild(node);
+		adjustTree(cur);
+	}
+
+
+	private Node chooseLeaf(Box box) {
+		Node cur = root;
+
+		while (!cur.leaf) {
+			cur = chooseSubtree(cur, box);
+		}
+
+		return cur;
+	}
+
+
+	private Node chooseSubtree(Node node, Box box) {
+		Node best = null;
+		float bestEnlargement = Float.POSITIVE_INFINITY;
+		float bestArea = Float.POSITIVE_INFINITY;
+
+		for (int i = 0; i < node.count; ++i) {
+			Node child = (Node)node.children[i];
+
+			float area = child.area();
+			float enlargement = child.unionArea(box) - area;
+
+			if (
+				enlargement < bestEnlargement
+				|| (enlargement == bestEnlargement && area < bestArea)
+			) {
+				best = child;
+				bestEnlargement = enlargement;
+				bestArea = area;
+			}
+
+		}
+
+		return best;
+	}
+
+
+	private void adjustTree(Node node) {
+		while (node != null) {
+			Node sibling = null;
+
+			if (node.count > MAX_ENTRIES) {
+				sibling = split(node);
+			}
+
+			node.recalculateBound();
+
+			if (node.parent == null) {
+				if (sibling != null) {
+					// Root was split, grow the tree by one level
+					Node newRoot = new Node(false);
+
+					newRoot.addChild(node);
+					newRoot.addChild(sibling);
+					newRoot.recalculateBound();
+
+					root = newRoot;
+				}
+
+				return;
+			}
+
+			if (sibling != null) {
+				node.parent.addChild(sibling);
+			}
+
+			node = node.parent;
+		}
+
+	}
+
+
+	/**
+	 * Quadratic split. node keeps one group, the returned sibling holds the other
+	 */
+	private Node split(Node node) {
+		Box[] boxes = new Box[node.count];
+		System.arraycopy(node.children, 0, boxes, 0, node.count);
+
+		// Pick seeds: the pair wasting the most area if put together
+		int seedA = 0, seedB = 1;
+		float worstWaste = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < boxes.length; ++i) {
+			for (int j = i + 1; j < boxes.length; ++j) {
+				float waste = boxes[i].unionArea(boxes[j]) - boxes[i].area() - boxes[j].area();
+
+				if (waste > worstWaste) {
+					worstWaste = waste;
+					seedA = i;
+					seedB = j;
+				}
+
+			}
+
+		}
+
+		node.clearChildren();
+
+		Node sibling = new Node(node.leaf);
+
+		node.addChild(boxes[seedA]);
+		sibling.addChild(boxes[seedB]);
+
+		node.recalculateBound();
+		sibling.recalculateBound();
+
+		boolean[] assigned = new boolean[boxes.length];
+		assigned[seedA] = true;
+		assigned[seedB] = true;
+
+		int remaining = boxes.length - 2;
+
+		while (remaining > 0) {
+			// Make sure both groups end up with at least MIN_ENTRIES
+			if (node.count + remaining == MIN_ENTRIES) {
+				assignAll(boxes, assigned, node);
+				break;
+			}
+
+			if (sibling.count + remaining == MIN_ENTRIES) {
+				assignAll(boxes, assigned, sibling);
+				break;
+			}
+
+			// Pick next: the box with the greatest preference for one group
+			int next = -1;
+			float bestDiff = Float.NEGATIVE_INFINITY;
+			float nextEnlargeA = 0, nextEnlargeB = 0;
+
+			for (int i = 0; i < boxes.length; ++i) {
+				if (assigned[i]) {
+					continue;
+				}
+
+				float enlargeA = node.unionArea(boxes[i]) - node.area();
+				float enlargeB = sibling.unionArea(boxes[i]) - sibling.area();
+				float diff = Math.abs(enlargeA - enlargeB);
+
+				if (diff > bestDiff) {
+					bestDiff = diff;
+					next = i;
+					nextEnlargeA = enlargeA;
+					nextEnlargeB = enlargeB;
+				}
+
+			}
+
+			Node target;
+
+			if (nextEnlargeA < nextEnlargeB) {
+				target = node;
+			} else if (nextEnlargeA > nextEnlargeB) {
+				target = sibling;
+			} else if (node.area() != sibling.area()) {
+				target = (node.area() < sibling.area() ? node : sibling);
+			} else {
+				target = (node.count <= sibling.count ? node : sibling);
+			}
+
+			target.addChild(boxes[next]);
+			target.union(boxes[next]);
+
+			assigned[next] = true;
+			--remaining;
+		}
+
+		node.recalculateBound();
+		sibling.recalculateBound();
+
+		return sibling;
+	}
+
+
+	private void assignAll(Box[] boxes, boolean[] assigned, Node target) {
+		for (int i = 0; i < boxes.length; ++i) {
+			if (!assigned[i]) {
+				target.addChild(boxes[i]);
+				assigned[i] = true;
+			}
+
+		}
+
+	}
+
+
+	private void condenseTree(Node node) {
+		List<Node> eliminated = new ArrayList<>();
+		List<Integer> eliminatedHeights = new ArrayList<>();
+
+		int height = heightOf(node);
+
+		while (node.parent != null) {
+			Node parent = node.parent;
+
+			if (node.count < MIN_ENTRIES) {
+				parent.removeChild(node);
+
+				eliminated.add(node);
+				eliminatedHeights.add(height);
+			} else {
+				node.recalculateBound();
+			}
+
+			node = parent;
+			++height;
+		}
+
+		root.recalculateBound();
+
+		// Shrink tree if root has only 1 child
+		while (!root.leaf && root.count == 1) {
+			root = (Node)root.children[0];
+			root.parent = null;
+		}
+
+		if (!root.leaf && root.count == 0) {
+			root = new Node(true);
+		}
+
+		// Re-insert orphaned entries/subtrees at their original level
+		for (int i = 0; i < eliminated.size(); ++i) {
+			Node orphan = eliminated.get(i);
+
+			for (int j = 0; j < orphan.count; ++j) {
+				Box child = orphan.children[j];
+
+				if (orphan.leaf) {
+					insertEntry((Entry)child);
+				} else {
+					reinsertSubtree((Node)child, eliminatedHeights.get(i) - 1);
+				}
+
+			}
+
+		}
+
+	}
+
+
+	private void reinsertSubtree(Node node, int height) {
+		if (height >= heightOf(root)) {
+			// The tree has shrunk below this subtree's height: re-insert its entries one by one
+			reinsertLeaves(node);
+		} else {
+			insertNode(node, height);
+		}
+
+	}
+
+
+	private void reinsertLeaves(Node node) {
+		for (int i = 0; i < node.count; ++i) {
+			if (node.leaf) {
+				insertEntry((Entry)node.children[i]);
+			} else {
+				reinsertLeaves((Node)node.children[i]);
+			}
+
+		}
+
+	}
+
+
+	/**
+	 * Leaf nodes have height 0
+	 */
+	private int heightOf(Node node) {
+		int height = 0;
+
+		while (!node.leaf) {
+			node = (Node)node.children[0];
+			++height;
+		}
+
+		return height;
+	}
+
+
+
+
+
+
+	private static class Box {
+		public float left, top, right, bottom;
+
+
+
+		public float area() {
+			return (right - left) * (bottom - top);
+		}
+
+
+		public float unionArea(Box other) {
+			return (Math.max(right, other.right) - Math.min(left, other.left))
+				* (Math.max(bottom, other.bottom) - Math.min(top, other.top));
+		}
+
+
+		public void union(Box other) {
+			left = Math.min(left, other.left);
+			top = Math.min(top, other.top);
+			right = Math.max(right, other.right);
+			bottom = Math.max(bottom, other.bottom);
+		}
+
+
+		public boolean intersects(float left, float top, float right, float bottom) {
+			return this.left <= right && left <= this.right
+				&& this.top <= bottom && top <= this.bottom;
+		}
+
+	}
+
+
+
+	private static class Entry extends Box {
+		public final int id;
+		public Node leaf;
+
+
+
+		public Entry(int id, float left, float top, float right, float bottom) {
+			this.id = id;
+			this.left = left;
+			this.top = top;
+			this.right = right;
+			this.bottom = bottom;
+		}
+
+	}
+
+
+
+	private static class Node extends Box {
+		public final boolean leaf;
+		public Node parent = null;
+
+		public Box[] children = new Box[MAX_ENTRIES + 1];
+		public int count = 0;
+
+
+
+		public Node(boolean leaf) {
+			this.leaf = leaf;
+		}
+
+
+		public void addChild(Box child) {
+			children[count++] = child;
+
+			if (child instanceof Node) {
+				((Node)child).parent = this;
+			} else {
+				((Entry)child).leaf = this;
+			}
+
+		}
+
+
+		public void removeChild(Box child) {
+			for (int i = 0; i < count; ++i) {
+				if (children[i] == child) {
+					children[i] = children[--count];
+					children[count] = null;
+
+					return;
+				}
+
+			}
+
+		}
+
+
+		public void clearChildren() {
+			for (int i = 0; i < count; ++i) {
+				children[i] = null;
+			}
+
+			count = 0;
+		}
+
+
+		public void recalculateBound() {
+			if (count == 0) {
+				left = top = right = bottom = 0;
+				return;
+			}
+
+			left = top = Float.POSITIVE_INFINITY;
+			right = bottom = Float.NEGATIVE_INFINITY;
+
+			for (int i = 0; i < count; ++i) {
+				union(children[i]);
+			}
+
+		}
+
+	}
+
+}
@@ -2,6 +2,7 @@ package tnl.objcanvas;
 
 import android.graphics.Matrix;
 import android.graphics.PointF;
+import android.graphics.RectF;
 
 import java.util.Iterator;
 import java.util.List;
@@ -16,9 +17,13 @@ public class ViewMatrixAnalyzer {
 	private float scale = 1;
 	private float rotation = 0;     // Angle, in range (-180, 180]
 
-	private PointF origin = new PointF(0, 0);
-	private PointF vecUnitX = new PointF(1, 0);
-	private PointF vecUnitY = new PointF(0, 1);
+	// Images of the origin and of the unit vectors. Kept as primitives, so analyzing
+	// and mapping don't go through any object
+	private float originX = 0, originY = 0;
+	private float vecUnitXX = 1, vecUnitXY = 0;
+	private float vecUnitYX = 0, vecUnitYY = 1;
+
+	private final float[] tmp = new float[2];
 
 
 
@@ -28,18 +33,38 @@ public class ViewMatrixAnalyzer {
 		analyze();
 	}
 
+	/**
+	 * Set the matrix scaling by scale, then translating by (translateX, translateY).
+	 * Analyzed fields are set directly, so that host unit tests, whose Matrix is a
+	 * stub, can move the view. Only meant for tests
+	 */
+	void setScaleTranslate(float scale, float translateX, float translateY) {
+		mat.setScale(scale, scale);
+		mat.postTranslate(translateX, translateY);
+
+		this.scale = scale;
+		rotation = 0;
+		originX = translateX;
+		originY = translateY;
+		vecUnitXX = scale;
+		vecUnitXY = 0;
+		vecUnitYX = 0;
+		vecUnitYY = scale;
+	}
+
+
 	public Matrix get() {
 		return mat;
 	}
 
 
 	public float getTranslateX() {
-		return origin.x;
+		return originX;
 	}
 
 
 	public float getTranslateY() {
-		return origin.y;
+		return originY;
 	}
 
 
@@ -94,47 +119,113 @@ public class ViewMatrixAnalyzer {
 	}
 
 
+	/**
+	 * Same as mapOriginalToViewPoint(List), but maps into scratch when it can hold all
+	 * vertices, so that steady-state drawing doesn't allocate. Points are mapped from
+	 * the analyzed origin and unit vectors, which is exact for the affine view matrix
+	 *
+	 * @param vertices
+	 * @param scratch May be null
+	 * @return scratch, or a new array if scratch is too small. Only its first
+	 *         2 * vertices.size() values are meaningful
+	 */
+	public float[] mapOriginalToViewPoint(List<PointF> vertices, float[] scratch) {
+		int count = (vertices == null ? 0 : vertices.size());
+
+		float[] res = scratch;
+
+		if (res == null || res.length < count * 2) {
+			res = new float[count * 2];
+		}
+
+		for (int i = 0; i < count; ++i) {
+			PointF p = vertices.get(i);
+			res[2 * i] = originX + p.x * vecUnitXX + p.y * vecUnitYX;
+			res[2 * i + 1] = originY + p.x * vecUnitXY + p.y * vecUnitYY;
+		}
+
+		return res;
+	}
+
+
 	public void mapOriginalToViewPoint(float[] pts) {
 		mat.mapPoints(pts);
 	}
 
 
 	public PointF mapViewToOriginalPoint(float x, float y, PointF res) {
-		x -= origin.x;
-		y -= origin.y;
+		x -= originX;
+		y -= originY;
 
 		if (res == null) {
 			res = new PointF();
 		}
 
-		res.x = (x * vecUnitX.x + y * vecUnitX.y) / (scale * scale);
-		res.y = (x * vecUnitY.x + y * vecUnitY.y) / (scale * scale);
+		res.x = (x * vecUnitXX + y * vecUnitXY) / (scale * scale);
+		res.y = (x * vecUnitYX + y * vecUnitYY) / (scale * scale);
+
+		return res;
+	}
+
+
+	/**
+	 * Map a view-space rectangle to original space. As the view may be rotated,
+	 * the result is the axis-aligned bound of the 4 mapped corners
+	 */
+	public RectF mapViewToOriginalBound(
+		float left, float top, float right, float bottom, RectF res
+	) {
+		if (res == null) {
+			res = new RectF();
+		}
+
+		float x, y;
+
+		res.left = res.top = Float.POSITIVE_INFINITY;
+		res.right = res.bottom = Float.NEGATIVE_INFINITY;
+
+		for (int i = 0; i < 4; ++i) {
+			float vx = (i % 2 == 0 ? left : right) - originX;
+			float vy = (i < 2 ? top : bottom) - originY;
+
+			x = (vx * vecUnitXX + vy * vecUnitXY) / (scale * scale);
+			y = (vx * vecUnitYX + vy * vecUnitYY) / (scale * scale);
+
+			res.left = Math.min(res.left, x);
+			res.top = Math.min(res.top, y);
+			res.right = Math.max(res.right, x);
+			res.bottom = Math.max(res.bottom, y);
+		}
 
 		return res;
 	}
 
 
 	private void analyze() {
-		float[] tmp = new float[] {0, 0};
+		tmp[0] = 0;
+		tmp[1] = 0;
 
 		mat.mapPoints(tmp);
-		origin.set(tmp[0], tmp[1]);
+		originX = tmp[0];
+		originY = tmp[1];
 
 		tmp[0] = 1;
 		tmp[1] = 0;
 
 		mat.mapVectors(tmp);
-		vecUnitX.set(tmp[0], tmp[1]);
+		vecUnitXX = tmp[0];
+		vecUnitXY = tmp[1];
 
 		tmp[0] = 0;
 		tmp[1] = 1;
 
 		mat.mapVectors(tmp);
-		vecUnitY.set(tmp[0], tmp[1]);
+		vecUnitYX = tmp[0];
+		vecUnitYY = tmp[1];
 
-		scale = vecUnitX.length();
+		scale = (float)Math.sqrt(vecUnitXX * vecUnitXX + vecUnitXY * vecUnitXY);
 
-		rotation = (float)(Math.atan2(vecUnitX.y, vecUnitX.x) / Math.PI * 180);
+		rotation = (float)(Math.atan2(vecUnitXY, vecUnitXX) / Math.PI * 180);
 
 		while (rotation <= -180) {
 			rotation += 360;
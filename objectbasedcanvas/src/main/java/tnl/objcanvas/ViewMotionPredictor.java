@@ -0,0 +1,132 @@
+package tnl.objcanvas;
+
+import android.graphics.Matrix;
+
+
+
+/**
+ * Estimates pan and zoom velocities of the view from the successive deltas of a
+ * gesture, and extrapolates the view matrix from them.
+ *
+ * Deltas are accumulated until at least MIN_SAMPLE_INTERVAL_NANOS have passed, as
+ * touch events may come in bursts, then turned into a velocity which is exponentially
+ * smoothed. Rotation is not predicted. Not thread-safe
+ */
+class ViewMotionPredictor {
+	// Weight of the newest velocity sample in the smoothed velocity
+	public static final float SMOOTHING = 0.3f;
+
+	public static final long MIN_SAMPLE_INTERVAL_NANOS = 4000000L;
+
+	// If no delta came for longer than this, the finger was resting: velocity restarts at 0
+	public static final long MAX_SAMPLE_GAP_NANOS = 100000000L;
+
+	// Bounds of the predicted zoom ratio, whatever the horizon
+	public static final float MAX_PREDICTED_SCALE_RATIO = 4f;
+
+
+
+	// View pixels per second, and ln(scale) per second
+	private float velocityX = 0;
+	private float velocityY = 0;
+	private float logScaleVelocity = 0;
+
+	// Zoom focus, in view pixels
+	private float focusX = 0;
+	private float focusY = 0;
+
+	// Deltas since the last sample
+	private float pendingDx = 0;
+	private float pendingDy = 0;
+	private float pendingLogScale = 0;
+
+	private long lastSampleNanos = -1;
+
+
+
+	public void reset() {
+		velocityX = 0;
+		velocityY = 0;
+		logScaleVelocity = 0;
+
+		pendingDx = 0;
+		pendingDy = 0;
+		pendingLogScale = 0;
+
+		lastSampleNanos = -1;
+	}
+
+
+	/**
+	 *
+	 * @param nanos Time of the delta, as System.nanoTime()
+	 * @param dx Translation, in view pixels
+	 * @param dy
+	 * @param scale Zoom ratio, 1 for a pan
+	 * @param focusX Zoom focus, in view pixels. Ignored for a pan
+	 * @param focusY
+	 */
+	public void addDelta(long nanos, float dx, float dy, float scale, float focusX, float focusY) {
+		pendingDx += dx;
+		pendingDy += dy;
+
+		if (scale > 0 && scale != 1) {
+			pendingLogScale += (float)Math.log(scale);
+
+			this.focusX = focusX;
+			this.focusY = focusY;
+		}
+
+		if (lastSampleNanos < 0 || nanos - lastSampleNanos > MAX_SAMPLE_GAP_NANOS) {
+			// No previous delta to measure the interval from
+			velocityX = 0;
+			velocityY = 0;
+			logScaleVelocity = 0;
+
+			pendingDx = 0;
+			pendingDy = 0;
+			pendingLogScale = 0;
+
+			lastSampleNanos = nanos;
+
+			return;
+		}
+
+		long interval = nanos - lastSampleNanos;
+
+		if (interval < MIN_SAMPLE_INTERVAL_NANOS) {
+			return;
+		}
+
+		float seconds = interval / 1e9f;
+
+		velocityX += SMOOTHING * (pendingDx / seconds - velocityX);
+		velocityY += SMOOTHING * (pendingDy / seconds - velocityY);
+		logScaleVelocity += SMOOTHING * (pendingLogScale / seconds - logScaleVelocity);
+
+		pendingDx = 0;
+		pendingDy = 0;
+		pendingLogScale = 0;
+
+		lastSampleNanos = nanos;
+	}
+
+
+	/**
+	 *
+	 * @param current View matrix now
+	 * @param horizonNanos How far ahead to extrapolate
+	 * @param res Predicted view matrix
+	 */
+	public void predict(Matrix current, long horizonNanos, Matrix res) {
+		float seconds = horizonNanos / 1e9f;
+
+		float scale = (float)Math.exp(logScaleVelocity * seconds);
+		scale = Math.max(1 / MAX_PREDICTED_SCALE_RATIO, Math.min(MAX_PREDICTED_SCALE_RATIO, scale));
+
+		res.set(current);
+		res.postTranslate(velocityX * seconds, velocityY * seconds);
+		res.postScale(scale, scale, focusX, focusY);
+	}
+
+}
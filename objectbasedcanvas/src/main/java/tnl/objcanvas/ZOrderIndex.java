@@ -0,0 +1,350 @@
+package tnl.objcanvas;
+
+import java.util.Arrays;
+
+
+
+/**
+ * Items keyed by non-zero int ids, ordered by (zOrder, id).
+ *
+ * Every item put in the index is present exactly once in the ordering, and removed
+ * from it as soon as it is removed from the index, so the ordering never holds dead
+ * ids. Writes are serialized on the index's monitor, and each one publishes a new
+ * immutable snapshot through a volatile field (copy-on-write), so readers never lock.
+ * Use putAll() / removeAll() to publish once for many items
+ */
+class ZOrderIndex<T> {
+	private final IntObjectTable<Entry<T>> mapIdEntry = new IntObjectTable<>();
+
+	private volatile Snapshot<T> snapshot = new Snapshot<>(Snapshot.<T>newEntries(0));
+
+
+
+	public int size() {
+		return snapshot.size();
+	}
+
+
+	public T get(int id) {
+		Entry<T> entry = mapIdEntry.get(id);
+
+		if (entry == null) {
+			return null;
+		}
+
+		return entry.item;
+	}
+
+
+	/**
+	 *
+	 * @param id
+	 * @return Integer.MIN_VALUE if id does not exist
+	 */
+	public int getZOrder(int id) {
+		Entry<T> entry = mapIdEntry.get(id);
+
+		if (entry == null) {
+			return Integer.MIN_VALUE;
+		}
+
+		return entry.zOrder;
+	}
+
+
+	/**
+	 * Add an item, or replace the item and z-order of an existing id
+	 */
+	public synchronized void put(int id, int zOrder, T item) {
+		if (item == null) {
+			throw new IllegalArgumentException("item cannot be null");
+		}
+
+		Entry<T>[] entries = snapshot.entries;
+		Entry<T> prev = mapIdEntry.get(id);
+
+		if (prev != null) {
+			entries = without(entries, prev);
+		}
+
+		Entry<T> entry = new Entry<>(id, zOrder, item);
+
+		mapIdEntry.put(id, entry);
+		snapshot = new Snapshot<>(with(entries, entry));
+	}
+
+
+	/**
+	 * Same as put() for each item, publishing a single snapshot
+	 *
+	 * @param ids
+	 * @param zOrder
+	 * @param items Same length as ids
+	 */
+	public synchronized void putAll(int[] ids, int zOrder, T[] items) {
+		if (ids.length != items.length) {
+			throw new IllegalArgumentException("ids and items must have the same length");
+		}
+
+		Entry<T>[] added = Snapshot.newEntries(ids.length);
+
+		for (int i = 0; i < ids.length; ++i) {
+			if (items[i] == null) {
+				throw new IllegalArgumentException("items cannot contain null");
+			}
+
+			added[i] = new Entry<>(ids[i], zOrder, items[i]);
+		}
+
+		for (int i = 0; i < ids.length; ++i) {
+			mapIdEntry.put(ids[i], added[i]);
+		}
+
+		// An id given twice keeps its last item
+		int addedCnt = 0;
+
+		for (int i = 0; i < added.length; ++i) {
+			if (mapIdEntry.get(added[i].id) == added[i]) {
+				added[addedCnt++] = added[i];
+			}
+
+		}
+
+		Arrays.sort(added, 0, addedCnt);
+
+		snapshot = new Snapshot<>(merge(liveEntries(snapshot.entries), added, addedCnt));
+	}
+
+
+	/**
+	 *
+	 * @param id
+	 * @param zOrder
+	 * @return false if id does not exist
+	 */
+	public synchronized boolean setZOrder(int id, int zOrder) {
+		Entry<T> prev = mapIdEntry.get(id);
+
+		if (prev == null) {
+			return false;
+		}
+
+		if (prev.zOrder != zOrder) {
+			put(id, zOrder, prev.item);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 *
+	 * @param id
+	 * @return false if id does not exist
+	 */
+	public synchronized boolean remove(int id) {
+		Entry<T> entry = mapIdEntry.remove(id);
+
+		if (entry == null) {
+			return false;
+		}
+
+		snapshot = new Snapshot<>(without(snapshot.entries, entry));
+
+		return true;
+	}
+
+
+	/**
+	 * Same as remove() for each id, publishing a single snapshot
+	 *
+	 * @param ids
+	 * @return number of ids that existed and have been removed
+	 */
+	public synchronized int removeAll(int[] ids) {
+		int removedCount = 0;
+
+		for (int i = 0; i < ids.length; ++i) {
+			if (mapIdEntry.remove(ids[i]) != null) {
+				++removedCount;
+			}
+
+		}
+
+		if (removedCount > 0) {
+			snapshot = new Snapshot<>(liveEntries(snapshot.entries));
+		}
+
+		return removedCount;
+	}
+
+
+	public synchronized void clear() {
+		mapIdEntry.clear();
+
+		snapshot = new Snapshot<>(Snapshot.<T>newEntries(0));
+	}
+
+
+	/**
+	 *
+	 * @return Items in (zOrder, id) order, as of the last modification
+	 */
+	public Snapshot<T> getSnapshot() {
+		return snapshot;
+	}
+
+
+	/**
+	 *
+	 * @param entries Sorted
+	 * @param entry Not in entries
+	 * @return Sorted copy of entries with entry inserted
+	 */
+	private static <T> Entry<T>[] with(Entry<T>[] entries, Entry<T> entry) {
+		int pos = -Arrays.binarySearch(entries, entry) - 1;
+
+		Entry<T>[] res = Snapshot.newEntries(entries.length + 1);
+
+		System.arraycopy(entries, 0, res, 0, pos);
+		res[pos] = entry;
+		System.arraycopy(entries, pos, res, pos + 1, entries.length - pos);
+
+		return res;
+	}
+
+
+	/**
+	 *
+	 * @param entries Sorted
+	 * @param entry In entries
+	 * @return Sorted copy of entries without entry
+	 */
+	private static <T> Entry<T>[] without(Entry<T>[] entries, Entry<T> entry) {
+		int pos = Arrays.binarySearch(entries, entry);
+
+		Entry<T>[] res = Snapshot.newEntries(entries.length - 1);
+
+		System.arraycopy(entries, 0, res, 0, pos);
+		System.arraycopy(entries, pos + 1, res, pos, entries.length - pos - 1);
+
+		return res;
+	}
+
+
+	/**
+	 *
+	 * @return Copy of entries, keeping only those still mapped by their id
+	 */
+	private Entry<T>[] liveEntries(Entry<T>[] entries) {
+		Entry<T>[] res = Snapshot.newEntries(entries.length);
+		int cnt = 0;
+
+		for (Entry<T> entry : entries) {
+			if (mapIdEntry.get(entry.id) == entry) {
+				res[cnt++] = entry;
+			}
+
+		}
+
+		return Arrays.copyOf(res, cnt);
+	}
+
+
+	/**
+	 * Merge two sorted arrays
+	 */
+	private static <T> Entry<T>[] merge(Entry<T>[] a, Entry<T>[] b, int bCount) {
+		Entry<T>[] res = Snapshot.newEntries(a.length + bCount);
+		int i = 0, j = 0, k = 0;
+
+		while (i < a.length && j < bCount) {
+			res[k++] = (a[i].compareTo(b[j]) <= 0 ? a[i++] : b[j++]);
+		}
+
+		while (i < a.length) {
+			res[k++] = a[i++];
+		}
+
+		while (j < bCount) {
+			res[k++] = b[j++];
+		}
+
+		return res;
+	}
+
+
+
+
+
+
+	/**
+	 * Immutable, z-ordered list of items
+	 */
+	public static class Snapshot<T> {
+		private final Entry<T>[] entries;
+
+
+
+		private Snapshot(Entry<T>[] entries) {
+			this.entries = entries;
+		}
+
+
+		public int size() {
+			return entries.length;
+		}
+
+
+		public T get(int index) {
+			return entries[index].item;
+		}
+
+
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		private static <T> Entry<T>[] newEntries(int length) {
+			return (Entry<T>[])new Entry[length];
+		}
+
+	}
+
+
+
+	private static class Entry<T> implements Comparable<Entry<T>> {
+		public final int id;
+		public final int zOrder;
+		public final T item;
+
+
+
+		public Entry(int id, int zOrder, T item) {
+			this.id = id;
+			this.zOrder = zOrder;
+			this.item = item;
+		}
+
+
+		@Override
+		public int compareTo(Entry<T> other) {
+			if (zOrder < other.zOrder) {
+				return -1;
+			}
+
+			if (zOrder > other.zOrder) {
+				return 1;
+			}
+
+			if (id < other.id) {
+				return -1;
+			}
+
+			if (id > other.id) {
+				return 1;
+			}
+
+			return 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,254 @@
+package tnl.objcanvas;
+
+import android.graphics.Canvas;
+import android.graphics.Path;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests checking that steady-state frames of an unchanged scene, panned
+ * every frame, don't allocate, executed on the development machine (host). Android
+ * classes are the default-value stubs of the unit test android.jar, so what is measured
+ * is the library's own drawing pipeline. Stubbed matrices have no effect, so the view
+ * is panned through ViewMatrixAnalyzer's test hook, and stubbed Pictures can't be
+ * recorded, so retained drawing is off
+ */
+public class DrawAllocationTest {
+	private static final int VIEW_SIZE = 1000;
+	private static final int OBJECT_COUNT = 500;
+	private static final int VERTEX_COUNT = 100;
+
+	// Objects are laid out on a grid, far enough apart that batches are only split by
+	// their size, and panning by up to PAN_RANGE_PX keeps all of them in view
+	private static final int GRID_COLUMNS = 25;
+	private static final float GRID_SPACING = 36;
+	private static final float GRID_OFFSET = 60;
+	private static final float OBJECT_RADIUS = 10;
+	private static final float PAN_RANGE_PX = 40;
+
+	private static final int WARMUP_FRAMES = 200;
+	private static final int MEASURED_FRAMES = 100;
+
+	// The JIT may materialize objects it had eliminated when it recompiles a method,
+	// once, whenever that happens. A per-frame allocation makes every frame allocate
+	private static final int MAX_ALLOCATING_FRAMES = 2;
+
+
+
+	@Test
+	public void pannedFrame_directDrawing_doesNotAllocate() {
+		ObjectBasedCanvas objCanvas = new ObjectBasedCanvas(null);
+
+		objCanvas.setRetainedDrawingEnabled(false);
+		objCanvas.setBatchedDrawingEnabled(false);
+
+		CountingCanvas canvas = new CountingCanvas();
+
+		assertNoFrameAllocation(objCanvas, canvas);
+
+		// Every object really went through the drawing pipeline
+		assertEquals(MEASURED_FRAMES * OBJECT_COUNT, canvas.drawPathCount);
+	}
+
+
+	@Test
+	public void pannedFrame_batchedDrawing_doesNotAllocate() {
+		ObjectBasedCanvas objCanvas = new ObjectBasedCanvas(null);
+
+		objCanvas.setRetainedDrawingEnabled(false);
+
+		CountingCanvas canvas = new CountingCanvas();
+
+		float[] firstLineXs = assertNoFrameAllocation(objCanvas, canvas);
+
+		// All objects share a style and don't overlap, so each frame draws full batches
+		int batchSize = PolyDrawBatch.MAX_BATCH_OBJECTS;
+		int batchCount = (OBJECT_COUNT + batchSize - 1) / batchSize;
+
+		assertEquals(MEASURED_FRAMES * batchCount, canvas.drawLinesCount);
+		assertEquals(MEASURED_FRAMES * batchCount * 2, canvas.drawPointsCount);
+
+		// Lines follow the pan: the first one starts at the first vertex of the first object
+		for (int i = 0; i < MEASURED_FRAMES; ++i) {
+			assertEquals(
+				GRID_OFFSET + OBJECT_RADIUS + panX(WARMUP_FRAMES + i), firstLineXs[i], 0.01f
+			);
+
+		}
+
+	}
+
+
+	/**
+	 * Add the test objects to objCanvas, draw warm-up frames, then check that measured
+	 * frames don't allocate. Every frame is panned. canvas's counters only cover
+	 * measured frames
+	 *
+	 * @return For each measured frame, the x of the first line drawn, or NaN
+	 */
+	private static float[] assertNoFrameAllocation(
+		ObjectBasedCanvas objCanvas, CountingCanvas canvas
+	) {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+
+		assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		objCanvas.addObjects(createObjects(), 0, true);
+
+		for (int i = 0; i < WARMUP_FRAMES; ++i) {
+			objCanvas.renderFrame(canvas, VIEW_SIZE, VIEW_SIZE, panX(i), panY(i));
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedBytes = 0;
+		int allocatingFrames = 0;
+		float[] firstLineXs = new float[MEASURED_FRAMES];
+
+		canvas.drawPathCount = 0;
+		canvas.drawLinesCount = 0;
+		canvas.drawPointsCount = 0;
+
+		for (int i = 0; i < MEASURED_FRAMES; ++i) {
+			int frame = WARMUP_FRAMES + i;
+
+			canvas.firstLineX = Float.NaN;
+
+			long before = threadBean.getThreadAllocatedBytes(threadId);
+			objCanvas.renderFrame(canvas, VIEW_SIZE, VIEW_SIZE, panX(frame), panY(frame));
+			long frameBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+			firstLineXs[i] = canvas.firstLineX;
+
+			if (frameBytes > 0) {
+				allocatedBytes += frameBytes;
+				++allocatingFrames;
+			}
+
+		}
+
+		assertTrue(
+			allocatingFrames + " panned frames allocated " + allocatedBytes + " bytes",
+			allocatingFrames <= MAX_ALLOCATING_FRAMES
+		);
+
+		return firstLineXs;
+	}
+
+
+	/**
+	 * View translation of the given frame. Both directions sweep back and forth over
+	 * [-PAN_RANGE_PX, PAN_RANGE_PX], at different paces, so every frame moves the view
+	 */
+	private static float panX(int frame) {
+		return triangleWave(frame * 3f);
+	}
+
+
+	private static float panY(int frame) {
+		return triangleWave(frame * 2f);
+	}
+
+
+	private static float triangleWave(float t) {
+		float period = PAN_RANGE_PX * 4;
+		float phase = t % period;
+
+		return (phase < period / 2 ? phase : period - phase) - PAN_RANGE_PX;
+	}
+
+
+	private static List<CanvasObject> createObjects() {
+		List<CanvasObject> res = new ArrayList<>();
+
+		for (int i = 0; i < OBJECT_COUNT; ++i) {
+			CanvasPoly poly = (i % 2 == 0 ? new CanvasPolygon() : new CanvasPolyline());
+
+			for (int j = 0; j < VERTEX_COUNT; ++j) {
+				// Fields are set directly, stubbed constructors don't set them
+				PointF p = new PointF();
+				p.x = GRID_OFFSET + (i % GRID_COLUMNS) * GRID_SPACING
+					+ (float)Math.cos(j * 0.1) * OBJECT_RADIUS;
+				p.y = GRID_OFFSET + (i / GRID_COLUMNS) * GRID_SPACING
+					+ (float)Math.sin(j * 0.1) * OBJECT_RADIUS;
+
+				poly.vertices.add(p);
+			}
+
+			// Line width plus radius stays below half the grid spacing, so that vertex
+			// points of neighbours don't overlap
+			poly.vertexPointSize = 4;
+			poly.markChanged();
+			res.add(poly);
+		}
+
+		return res;
+	}
+
+
+
+
+
+
+	/**
+	 * Canvas whose clip is the whole view, counting filled paths and batched primitives
+	 */
+	private static class CountingCanvas extends Canvas {
+		public int drawPathCount = 0;
+		public int drawLinesCount = 0;
+		public int drawPointsCount = 0;
+
+		// x of the first line drawn since this was last set to NaN
+		public float firstLineX = Float.NaN;
+
+
+
+		@Override
+		public boolean getClipBounds(Rect bounds) {
+			bounds.left = 0;
+			bounds.top = 0;
+			bounds.right = VIEW_SIZE;
+			bounds.bottom = VIEW_SIZE;
+
+			return true;
+		}
+
+
+		@Override
+		public void drawPath(Path path, Paint paint) {
+			++drawPathCount;
+		}
+
+
+		@Override
+		public void drawLines(float[] pts, int offset, int count, Paint paint) {
+			++drawLinesCount;
+
+			if (Float.isNaN(firstLineX) && count > 0) {
+				firstLineX = pts[offset];
+			}
+
+		}
+
+
+		@Override
+		public void drawPoints(float[] pts, int offset, int count, Paint paint) {
+			++drawPointsCount;
+		}
+	}
+
+}
@@ -0,0 +1,157 @@
+package tnl.objcanvas;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ZOrderIndex, executed on the development machine (host).
+ */
+public class ZOrderIndexTest {
+	@Test
+	public void snapshot_isOrderedByZOrderThenId() {
+		ZOrderIndex<String> index = new ZOrderIndex<>();
+
+		index.put(3, 0, "c");
+		index.put(1, 5, "a");
+		index.put(2, 0, "b");
+		index.put(4, -1, "d");
+
+		ZOrderIndex.Snapshot<String> snapshot = index.getSnapshot();
+
+		assertEquals(4, snapshot.size());
+		assertEquals("d", snapshot.get(0));
+		assertEquals("b", snapshot.get(1));
+		assertEquals("c", snapshot.get(2));
+		assertEquals("a", snapshot.get(3));
+	}
+
+
+	@Test
+	public void setZOrder_movesItemAndIgnoresRemovedId() {
+		ZOrderIndex<String> index = new ZOrderIndex<>();
+
+		index.put(1, 0, "a");
+		index.put(2, 1, "b");
+
+		assertTrue(index.setZOrder(1, 2));
+		assertEquals("b", index.getSnapshot().get(0));
+		assertEquals("a", index.getSnapshot().get(1));
+
+		assertTrue(index.remove(1));
+		assertFalse(index.setZOrder(1, 7));
+
+		assertEquals(1, index.size());
+		assertEquals(1, index.getSnapshot().size());
+		assertNull(index.get(1));
+	}
+
+
+	@Test
+	public void snapshot_isNotAffectedByLaterModification() {
+		ZOrderIndex<String> index = new ZOrderIndex<>();
+
+		index.put(1, 0, "a");
+
+		ZOrderIndex.Snapshot<String> snapshot = index.getSnapshot();
+
+		index.remove(1);
+		index.put(2, 0, "b");
+
+		assertEquals(1, snapshot.size());
+		assertEquals("a", snapshot.get(0));
+	}
+
+
+	@Test
+	public void putAllAndRemoveAll_publishOneOrderedSnapshot() {
+		ZOrderIndex<String> index = new ZOrderIndex<>();
+
+		index.put(2, 1, "b");
+		index.put(5, 0, "e");
+
+		ZOrderIndex.Snapshot<String> before = index.getSnapshot();
+
+		index.putAll(new int[] {4, 1, 5, 3}, 1, new String[] {"d", "a", "e2", "c"});
+
+		ZOrderIndex.Snapshot<String> snapshot = index.getSnapshot();
+
+		assertEquals(2, before.size());
+		assertEquals(5, snapshot.size());
+		assertEquals("a", snapshot.get(0));
+		assertEquals("b", snapshot.get(1));
+		assertEquals("c", snapshot.get(2));
+		assertEquals("d", snapshot.get(3));
+		assertEquals("e2", snapshot.get(4));
+		assertEquals(1, index.getZOrder(5));
+
+		assertEquals(2, index.removeAll(new int[] {2, 7, 4}));
+
+		snapshot = index.getSnapshot();
+
+		assertEquals(3, snapshot.size());
+		assertEquals("a", snapshot.get(0));
+		assertEquals("c", snapshot.get(1));
+		assertEquals("e2", snapshot.get(2));
+		assertNull(index.get(4));
+	}
+
+
+	@Test
+	public void churn_iterationCostTracksLiveObjectCount() {
+		final int liveTarget = 500;
+		final int rounds = 200000;
+
+		ZOrderIndex<Integer> index = new ZOrderIndex<>();
+		ArrayList<Integer> liveIds = new ArrayList<>();
+		Random random = new Random(42);
+
+		int nextId = 1;
+
+		for (int round = 0; round < rounds; ++round) {
+			if (liveIds.size() < liveTarget || random.nextBoolean()) {
+				int id = nextId++;
+
+				index.put(id, random.nextInt(10), id);
+				liveIds.add(id);
+			} else {
+				int pos = random.nextInt(liveIds.size());
+				int id = liveIds.get(pos);
+
+				liveIds.set(pos, liveIds.get(liveIds.size() - 1));
+				liveIds.remove(liveIds.size() - 1);
+
+				assertTrue(index.remove(id));
+			}
+
+			if (round % 10 == 0 && !liveIds.isEmpty()) {
+				index.setZOrder(liveIds.get(random.nextInt(liveIds.size())), random.nextInt(10));
+			}
+
+			if (round % 1000 == 0) {
+				assertEquals(liveIds.size(), index.size());
+
+				// What a drawing pass visits: only live items, never dead ids
+				ZOrderIndex.Snapshot<Integer> snapshot = index.getSnapshot();
+				int visited = 0;
+
+				for (int i = 0; i < snapshot.size(); ++i) {
+					assertNotNull(index.get(snapshot.get(i)));
+					++visited;
+				}
+
+				assertEquals(liveIds.size(), visited);
+			}
+
+		}
+
+		// Many more ids have been created than are alive, yet nothing leaks
+		assertTrue(nextId > 10 * liveIds.size());
+		assertEquals(liveIds.size(), index.size());
+		assertEquals(liveIds.size(), index.getSnapshot().size());
+	}
+
+}